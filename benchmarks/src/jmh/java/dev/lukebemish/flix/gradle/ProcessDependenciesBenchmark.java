@@ -0,0 +1,107 @@
+package dev.lukebemish.flix.gradle;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.result.DependencyResult;
+import org.gradle.api.artifacts.result.ResolvedComponentResult;
+import org.gradle.api.artifacts.result.ResolvedDependencyResult;
+import org.gradle.api.artifacts.result.ResolvedVariantResult;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.attributes.AttributeContainer;
+import org.gradle.api.attributes.LibraryElements;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+@State(Scope.Benchmark)
+public class ProcessDependenciesBenchmark {
+    @Param({"50", "500"})
+    public int nodes;
+
+    private DependencyHandler dependencies;
+    private ResolvedComponentResult root;
+
+    @Setup
+    public void setup() throws IOException {
+        Project project = ProjectBuilder.builder().withProjectDir(Files.createTempDirectory("process-dependencies-benchmark").toFile()).build();
+        dependencies = project.getDependencies();
+
+        // A binary tree of modules, every fifth of them a Flix package
+        List<Set<DependencyResult>> children = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            children.add(new LinkedHashSet<>());
+        }
+        List<ResolvedComponentResult> components = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            components.add(component("org.example" + i + ":artifact" + i + ":1." + i, children.get(i)));
+        }
+        for (int i = 1; i < nodes; i++) {
+            children.get((i - 1) / 2).add(dependency(components.get(i), i % 5 == 0 ? "fpkg" : "jar"));
+        }
+        root = component("org.example:root:1.0", Set.of(dependency(components.get(0), "jar")));
+    }
+
+    @Benchmark
+    public List<Dependency> processDependencies() {
+        return FlixGradlePlugin.processDependencies(dependencies, root);
+    }
+
+    private static ResolvedComponentResult component(String coordinates, Set<DependencyResult> children) {
+        ModuleVersionIdentifier id = proxy(ModuleVersionIdentifier.class, (name, args) -> switch (name) {
+            case "toString" -> coordinates;
+            default -> throw new UnsupportedOperationException(name);
+        });
+        return proxy(ResolvedComponentResult.class, (name, args) -> switch (name) {
+            case "getModuleVersion" -> id;
+            case "getDependencies" -> children;
+            case "toString" -> coordinates;
+            default -> throw new UnsupportedOperationException(name);
+        });
+    }
+
+    private static ResolvedDependencyResult dependency(ResolvedComponentResult selected, String libraryElements) {
+        Attribute<String> attribute = Attribute.of(LibraryElements.LIBRARY_ELEMENTS_ATTRIBUTE.getName(), String.class);
+        AttributeContainer attributes = proxy(AttributeContainer.class, (name, args) -> switch (name) {
+            case "keySet" -> Set.of(attribute);
+            case "getAttribute" -> libraryElements;
+            default -> throw new UnsupportedOperationException(name);
+        });
+        ResolvedVariantResult variant = proxy(ResolvedVariantResult.class, (name, args) -> switch (name) {
+            case "getAttributes" -> attributes;
+            default -> throw new UnsupportedOperationException(name);
+        });
+        return proxy(ResolvedDependencyResult.class, (name, args) -> switch (name) {
+            case "getSelected" -> selected;
+            case "getResolvedVariant" -> variant;
+            case "isConstraint" -> false;
+            default -> throw new UnsupportedOperationException(name);
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String name, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> switch (method.getName()) {
+            // Identity semantics, so that proxies can sit in hash sets
+            case "hashCode" -> System.identityHashCode(self);
+            case "equals" -> self == args[0];
+            default -> handler.invoke(method.getName(), args);
+        });
+        return type.cast(instance);
+    }
+}
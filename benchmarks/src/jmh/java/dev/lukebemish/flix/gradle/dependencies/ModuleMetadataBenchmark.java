@@ -0,0 +1,37 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import com.moandjiezana.toml.Toml;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+@State(Scope.Benchmark)
+public class ModuleMetadataBenchmark {
+    @Param({"10", "100"})
+    public int dependencies;
+
+    private Toml toml;
+
+    @Setup
+    public void setup() {
+        StringBuilder source = new StringBuilder();
+        source.append("[package]\nname = \"bench\"\nversion = \"1.0.0\"\nflix = \"0.44.0\"\n\n[dependencies]\n");
+        for (int i = 0; i < dependencies; i++) {
+            source.append("\"github:user").append(i).append("/repo").append(i).append("\" = \"1.").append(i).append(".0\"\n");
+        }
+        source.append("\n[mvn-dependencies]\n");
+        for (int i = 0; i < dependencies; i++) {
+            source.append("\"org.example").append(i).append(":artifact").append(i).append("\" = \"2.").append(i).append("\"\n");
+        }
+        toml = new Toml().read(source.toString());
+    }
+
+    @Benchmark
+    public Map<String, Object> makeModuleMetadata() {
+        return ArtifactHandler.makeModuleMetadata("user", "repo", "1.0.0", toml);
+    }
+}
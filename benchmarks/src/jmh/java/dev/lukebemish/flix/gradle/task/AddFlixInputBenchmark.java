@@ -0,0 +1,55 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+@State(Scope.Benchmark)
+public class AddFlixInputBenchmark {
+    @Param({"1000", "10000"})
+    public int sources;
+
+    private FlixWatch task;
+
+    @Setup
+    public void setup() throws IOException {
+        Path projectDir = Files.createTempDirectory("add-flix-input-benchmark");
+        Project project = ProjectBuilder.builder().withProjectDir(projectDir.toFile()).build();
+        project.getPluginManager().apply(JavaPlugin.class);
+
+        // Spread sources over nested packages, as a large project would
+        Path sourceDir = projectDir.resolve("src/main/flix");
+        for (int i = 0; i < sources; i++) {
+            Path file = sourceDir.resolve("pkg" + (i % 50)).resolve("sub" + (i % 7)).resolve("Module" + i + ".flix");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "def f" + i + "(): Int32 = " + i);
+        }
+        Path libDir = projectDir.resolve("libs");
+        Files.createDirectories(libDir);
+        for (int i = 0; i < 100; i++) {
+            Files.createFile(libDir.resolve("library" + i + (i % 3 == 0 ? ".fpkg" : ".jar")));
+        }
+
+        // Any compile task will do; this one needs the least wiring
+        task = project.getTasks().register("flixWatch", FlixWatch.class).get();
+        task.getSource().from(sourceDir);
+        task.getFlixInput().from(project.fileTree(libDir));
+    }
+
+    @Benchmark
+    public Properties addFlixInput() {
+        Properties properties = new Properties();
+        task.addFlixInput(properties);
+        return properties;
+    }
+}
@@ -0,0 +1,65 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.ModuleIdentifier;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class FlixTomlBenchmark {
+    @Param({"50", "500"})
+    public int dependencies;
+
+    private FlixToml task;
+
+    @Setup
+    public void setup() throws IOException {
+        Project project = ProjectBuilder.builder().withProjectDir(Files.createTempDirectory("flix-toml-benchmark").toFile()).build();
+        project.getPluginManager().apply(JavaPlugin.class);
+        task = project.getTasks().register("flixToml", FlixToml.class).get();
+
+        List<ModuleVersionIdentifier> ids = new ArrayList<>();
+        List<Boolean> fpkg = new ArrayList<>();
+        for (int i = 0; i < dependencies; i++) {
+            // A realistic mix: mostly maven dependencies, some Flix packages, and the compiler itself
+            if (i == 0) {
+                ids.add(new Id("dev.flix", "flix", "0.44.0"));
+                fpkg.add(false);
+            } else if (i % 4 == 0) {
+                ids.add(new Id("github/user" + i, "repo" + i, "1." + i + ".0"));
+                fpkg.add(true);
+            } else {
+                ids.add(new Id("org.example" + i, "artifact" + i, "2." + i));
+                fpkg.add(false);
+            }
+        }
+        task.getDependencyArtifactIds().set(ids);
+        task.getDependencyArtifactsAreFpkg().set(fpkg);
+        task.getPackageName().set("bench");
+        task.getPackageVersion().set("1.0.0");
+        task.getDestinationFile().set(project.getLayout().getBuildDirectory().file("flix.toml"));
+    }
+
+    @Benchmark
+    public void generate() throws IOException {
+        task.generate();
+    }
+
+    private record Id(String getGroup, String getName, String getVersion) implements ModuleVersionIdentifier, ModuleIdentifier {
+        @Override
+        public ModuleIdentifier getModule() {
+            return this;
+        }
+    }
+}
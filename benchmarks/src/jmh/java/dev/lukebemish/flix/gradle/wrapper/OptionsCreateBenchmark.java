@@ -0,0 +1,31 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.util.Options;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Properties;
+
+@State(Scope.Benchmark)
+public class OptionsCreateBenchmark {
+    private FlixOptions options;
+
+    @Setup
+    public void setup() {
+        Properties properties = new Properties();
+        properties.setProperty("output", "build/classes/flix/main");
+        properties.setProperty("strictMonomorphism", "true");
+        properties.setProperty("jvmTarget", "21");
+        properties.setProperty("libLevel", "all");
+        properties.setProperty("threads", "4");
+        options = new FlixOptions();
+        options.read(properties);
+    }
+
+    @Benchmark
+    public Options create() {
+        return options.create();
+    }
+}
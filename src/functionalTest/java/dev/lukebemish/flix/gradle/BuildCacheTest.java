@@ -0,0 +1,69 @@
+package dev.lukebemish.flix.gradle;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles with a real Flix release, which Gradle downloads from GitHub like any build using the plugin would.
+ */
+class BuildCacheTest {
+    @Test
+    void compileIsLoadedFromCacheInAnotherCheckout(@TempDir Path root, @TempDir Path testKitDir) throws IOException {
+        Path buildCache = root.resolve("build-cache");
+        Path first = writeProject(root.resolve("first"), buildCache);
+        Path second = writeProject(root.resolve("second"), buildCache);
+
+        BuildResult stored = run(first, testKitDir);
+        assertEquals(TaskOutcome.SUCCESS, stored.task(":compileFlix").getOutcome(), stored::getOutput);
+
+        BuildResult loaded = run(second, testKitDir);
+        assertEquals(TaskOutcome.FROM_CACHE, loaded.task(":compileFlix").getOutcome(), loaded::getOutput);
+    }
+
+    private static Path writeProject(Path projectDir, Path buildCache) throws IOException {
+        Files.createDirectories(projectDir.resolve("src/main/flix"));
+        Files.writeString(projectDir.resolve("settings.gradle"), """
+            rootProject.name = 'build-cache'
+
+            buildCache {
+                local {
+                    directory = file('%s')
+                }
+            }
+            """.formatted(buildCache.toAbsolutePath().toString().replace("\\", "/")));
+        Files.writeString(projectDir.resolve("build.gradle"), """
+            plugins {
+                id 'dev.lukebemish.flix-gradle'
+            }
+
+            flix.application()
+
+            dependencies {
+                flix 'dev.flix:flix:0.44.0'
+            }
+            """);
+        Files.writeString(projectDir.resolve("src/main/flix/Main.flix"), """
+            def main(): Unit \\ IO =
+                println("Hello World!")
+            """);
+        return projectDir;
+    }
+
+    private static BuildResult run(Path projectDir, Path testKitDir) {
+        return GradleRunner.create()
+            .withProjectDir(projectDir.toFile())
+            .withTestKitDir(testKitDir.toFile())
+            .withPluginClasspath()
+            .withArguments("compileFlix", "--build-cache", "--stacktrace")
+            .build();
+    }
+}
@@ -0,0 +1,78 @@
+package dev.lukebemish.flix.gradle;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigurationCacheTest {
+    @Test
+    void fileRepositoryIsWrittenWhenConfigurationCacheIsReused(@TempDir Path projectDir, @TempDir Path testKitDir) throws IOException {
+        Files.writeString(projectDir.resolve("settings.gradle"), "rootProject.name = 'configuration-cache'\n");
+        Files.writeString(projectDir.resolve("gradle.properties"), FlixGradlePlugin.REPOSITORY_MODE_PROPERTY + "=" + FlixGradlePlugin.FILE_REPOSITORY_MODE + "\n");
+        Files.writeString(projectDir.resolve("build.gradle"), """
+            plugins {
+                id 'dev.lukebemish.flix-gradle'
+            }
+
+            dependencies {
+                flix 'github:user/lib:1.0.0'
+            }
+
+            def flixClasspath = configurations.flixClasspath
+            tasks.register('printFlixClasspath') {
+                inputs.files(flixClasspath)
+                doLast {
+                    flixClasspath.files.each { println "flix classpath: ${it.name}" }
+                }
+            }
+            """);
+
+        try (var upstream = new FakeUpstream().release("user", "lib", "1.0.0")) {
+            BuildResult first = run(projectDir, testKitDir, upstream);
+            assertTrue(first.getOutput().contains("Configuration cache entry stored"), first::getOutput);
+            assertTrue(first.getOutput().contains("flix classpath: lib.fpkg"), first::getOutput);
+
+            // Without a configuration phase, only the value source can put the repository back
+            Path repository = testKitDir.resolve("caches/flix-gradle/repository");
+            deleteRecursively(repository);
+            assertFalse(Files.exists(repository));
+
+            BuildResult second = run(projectDir, testKitDir, upstream);
+            assertTrue(second.getOutput().contains("Reusing configuration cache"), second::getOutput);
+            assertEquals(TaskOutcome.SUCCESS, second.task(":printFlixClasspath").getOutcome());
+            assertTrue(second.getOutput().contains("flix classpath: lib.fpkg"), second::getOutput);
+        }
+    }
+
+    private static BuildResult run(Path projectDir, Path testKitDir, FakeUpstream upstream) {
+        return GradleRunner.create()
+            .withProjectDir(projectDir.toFile())
+            .withTestKitDir(testKitDir.toFile())
+            .withPluginClasspath()
+            .withArguments("printFlixClasspath", "--configuration-cache", "--stacktrace", upstream.systemProperty())
+            .build();
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
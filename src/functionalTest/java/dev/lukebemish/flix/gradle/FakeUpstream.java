@@ -0,0 +1,57 @@
+package dev.lukebemish.flix.gradle;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves GitHub release assets from memory, in the layout the plugin expects of its upstream, so that builds under test
+ * need no network.
+ */
+final class FakeUpstream implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, byte[]> assets = new ConcurrentHashMap<>();
+
+    FakeUpstream() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = assets.get(exchange.getRequestURI().getPath());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    /**
+     * Publishes a release of {@code user/repository} with no dependencies, holding a {@code flix.toml} and an fpkg.
+     */
+    FakeUpstream release(String user, String repository, String version) {
+        String prefix = "/" + user + "/" + repository + "/releases/download/v" + version + "/";
+        String toml = "[package]\nname = \"" + repository + "\"\nversion = \"" + version + "\"\n";
+        assets.put(prefix + "flix.toml", toml.getBytes(StandardCharsets.UTF_8));
+        assets.put(prefix + repository + ".fpkg", new byte[] {'P', 'K', 5, 6, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        return this;
+    }
+
+    /**
+     * @return the argument pointing the build under test at this upstream
+     */
+    String systemProperty() {
+        return "-Ddev.lukebemish.flix.upstream.url=http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,116 @@
+package dev.lukebemish.flix.gradle;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryLayerTest {
+    private static final String STARTED = "Started the flix repository layer";
+
+    @Test
+    void packagesResolveThroughTheLayer(@TempDir Path projectDir, @TempDir Path testKitDir) throws IOException {
+        writeGithubProject(projectDir);
+        try (var upstream = new FakeUpstream().release("user", "lib", "1.0.0")) {
+            BuildResult result = run(projectDir, testKitDir, upstream);
+            assertTrue(result.getOutput().contains(STARTED), result::getOutput);
+            assertTrue(result.getOutput().contains("flix classpath: lib.fpkg"), result::getOutput);
+            assertTrue(Files.exists(projectDir.resolve("build/reports/flix/repository-layer.json")), result::getOutput);
+        }
+    }
+
+    @Test
+    void configurationCacheIsReused(@TempDir Path projectDir, @TempDir Path testKitDir) throws IOException {
+        writeGithubProject(projectDir);
+        try (var upstream = new FakeUpstream().release("user", "lib", "1.0.0")) {
+            BuildResult first = run(projectDir, testKitDir, upstream, "--configuration-cache");
+            assertTrue(first.getOutput().contains(STARTED), first::getOutput);
+            assertTrue(first.getOutput().contains("flix classpath: lib.fpkg"), first::getOutput);
+
+            BuildResult second = run(projectDir, testKitDir, upstream, "--configuration-cache");
+            assertTrue(second.getOutput().contains("Reusing configuration cache"), second::getOutput);
+            assertTrue(second.getOutput().contains("flix classpath: lib.fpkg"), second::getOutput);
+        }
+    }
+
+    @Test
+    void layerIsNotStartedWithoutGithubPackages(@TempDir Path projectDir, @TempDir Path testKitDir) throws IOException {
+        Path module = projectDir.resolve("maven/org/example/lib/1.0.0");
+        Files.createDirectories(module);
+        Files.writeString(module.resolve("lib-1.0.0.pom"), """
+            <project>
+                <modelVersion>4.0.0</modelVersion>
+                <groupId>org.example</groupId>
+                <artifactId>lib</artifactId>
+                <version>1.0.0</version>
+            </project>
+            """);
+        Files.write(module.resolve("lib-1.0.0.jar"), new byte[] {'P', 'K', 5, 6, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        Files.writeString(projectDir.resolve("settings.gradle"), "rootProject.name = 'repository-layer'\n");
+        Files.writeString(projectDir.resolve("build.gradle"), """
+            plugins {
+                id 'dev.lukebemish.flix-gradle'
+            }
+
+            repositories {
+                maven {
+                    url = file('maven')
+                }
+            }
+
+            dependencies {
+                implementation 'org.example:lib:1.0.0'
+            }
+            """ + PRINT_FLIX_CLASSPATH);
+
+        try (var upstream = new FakeUpstream()) {
+            BuildResult result = run(projectDir, testKitDir, upstream);
+            assertTrue(result.getOutput().contains("flix classpath: lib-1.0.0.jar"), result::getOutput);
+            assertFalse(result.getOutput().contains(STARTED), result::getOutput);
+        }
+    }
+
+    private static void writeGithubProject(Path projectDir) throws IOException {
+        Files.writeString(projectDir.resolve("settings.gradle"), "rootProject.name = 'repository-layer'\n");
+        Files.writeString(projectDir.resolve("build.gradle"), """
+            plugins {
+                id 'dev.lukebemish.flix-gradle'
+            }
+
+            dependencies {
+                flix 'github:user/lib:1.0.0'
+            }
+            """ + PRINT_FLIX_CLASSPATH);
+    }
+
+    private static final String PRINT_FLIX_CLASSPATH = """
+
+        def flixClasspath = configurations.flixClasspath
+        tasks.register('printFlixClasspath') {
+            inputs.files(flixClasspath)
+            doLast {
+                flixClasspath.files.each { println "flix classpath: ${it.name}" }
+            }
+        }
+        """;
+
+    private static BuildResult run(Path projectDir, Path testKitDir, FakeUpstream upstream, String... arguments) {
+        List<String> allArguments = new ArrayList<>(List.of("printFlixClasspath", "--info", "--stacktrace", upstream.systemProperty()));
+        allArguments.addAll(List.of(arguments));
+        return GradleRunner.create()
+            .withProjectDir(projectDir.toFile())
+            .withTestKitDir(testKitDir.toFile())
+            .withPluginClasspath()
+            .withArguments(allArguments)
+            .build();
+    }
+}
@@ -1,11 +1,17 @@
 package dev.lukebemish.flix.gradle;
 
+import dev.lukebemish.flix.gradle.task.AbstractFlixCompile;
+import dev.lukebemish.flix.gradle.task.FlixBenchmark;
 import dev.lukebemish.flix.gradle.task.FlixCompile;
 import dev.lukebemish.flix.gradle.task.FlixRun;
+import dev.lukebemish.flix.gradle.task.FlixTest;
+import dev.lukebemish.flix.gradle.task.FlixWatch;
 import dev.lukebemish.flix.gradle.task.LibLevel;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.attributes.Bundling;
 import org.gradle.api.attributes.Category;
 import org.gradle.api.attributes.LibraryElements;
@@ -23,11 +29,21 @@
 import org.gradle.api.tasks.bundling.Jar;
 
 import javax.inject.Inject;
+import java.time.Duration;
 import java.util.Map;
 
 public abstract class FlixGradleExtension {
     public abstract Property<Boolean> getSkipRuntimeElements();
     public abstract Property<Boolean> getSkipApiElements();
+    /**
+     * Whether Flix compilation is handed to a long-lived compiler daemon instead of a fresh JVM per compile. Defaults
+     * to the {@code dev.lukebemish.flix.daemon} Gradle property.
+     */
+    public abstract Property<Boolean> getUseDaemon();
+    /**
+     * How long a compiler daemon may sit idle before it shuts itself down.
+     */
+    public abstract Property<Duration> getDaemonIdleTimeout();
 
     private final ObjectFactory objectFactory;
     private final Project project;
@@ -43,6 +59,9 @@ public FlixGradleExtension(Project project, ObjectFactory objectFactory) {
         this.getSkipRuntimeElements().convention(project.provider(() -> !isApplication));
         this.getSkipApiElements().convention(true);
 
+        this.getUseDaemon().convention(project.getProviders().gradleProperty("dev.lukebemish.flix.daemon").map(Boolean::parseBoolean).orElse(false));
+        this.getDaemonIdleTimeout().convention(Duration.ofMinutes(30));
+
         getSkipRuntimeElements().finalizeValueOnRead();
         getSkipApiElements().finalizeValueOnRead();
     }
@@ -89,7 +108,8 @@ public void application() {
 
             var flixCompile = project.getTasks().register(FlixGradlePlugin.sourcedNameOf(sourceSet, "compileFlix"), FlixCompile.class, task -> {
                 task.getFlixInput().from(flixClasspath);
-                task.getSource().set(flixSource.getSourceDirectories());
+                task.getSource().from(flixSource.getSourceDirectories());
+                task.getReportFile().convention(project.getLayout().getBuildDirectory().file("reports/flix/" + sourceSet.getName() + "/compile.json"));
             });
 
             project.getTasks().named(sourceSet.getClassesTaskName(), task -> task.dependsOn(flixCompile));
@@ -126,10 +146,11 @@ public void application() {
             flixRuntimeClasspath.setCanBeConsumed(false);
             flixRuntimeClasspath.setVisible(false);
             flixRuntimeClasspath.shouldResolveConsistentlyWith(flixClasspath);
-            flixRuntimeClasspath.defaultDependencies(deps -> {
-                var firstLevel = flixRuntimeResolvable.getResolvedConfiguration().getFirstLevelModuleDependencies();
-                FlixGradlePlugin.processDependencies(project, firstLevel).forEach(deps::add);
-            });
+            DependencyHandler dependencyHandler = project.getDependencies();
+            flixRuntimeClasspath.getDependencies().addAllLater(
+                flixRuntimeResolvable.getIncoming().getResolutionResult().getRootComponent()
+                    .map(root -> FlixGradlePlugin.processDependencies(dependencyHandler, root))
+            );
         });
 
         Configuration runtimeElements = project.getConfigurations().getByName(JavaPlugin.RUNTIME_ELEMENTS_CONFIGURATION_NAME);
@@ -144,12 +165,64 @@ public void application() {
         var main = sourceSets.getByName("main");
         var flixSource = (SourceDirectorySet) main.getExtensions().getByName("flix");
         var flixClasspath = project.getConfigurations().maybeCreate(FlixGradlePlugin.sourcedNameOf(main, FlixGradlePlugin.FLIX_CLASSPATH_CONFIGURATION_NAME));
+        // Compiled Flix code links against the runtime classes shipped in the compiler jar
+        var flixRuntime = flixClasspath.getIncoming().artifactView(view -> view.componentFilter(id ->
+            id instanceof ModuleComponentIdentifier module && module.getGroup().equals("dev.flix") && module.getModule().equals("flix")
+        )).getFiles();
         project.getTasks().register("runFlix", FlixRun.class, task -> {
-            task.getFlixInput().from(flixClasspath);
-            task.getSource().set(flixSource.getSourceDirectories());
+            task.getClasspath().from(main.getRuntimeClasspath());
+            task.getClasspath().from(flixRuntime);
             task.setDescription("Runs this project with flix");
             task.setGroup("application");
+        });
+        project.getTasks().register("flixWatch", FlixWatch.class, task -> {
+            task.getFlixInput().from(flixClasspath);
+            task.getSource().from(flixSource.getSourceDirectories());
+            task.setDescription("Recompiles this project whenever its flix sources change");
+            task.setGroup("application");
+        });
+
+        var test = sourceSets.getByName("test");
+        var compileTestFlix = project.getTasks().named(FlixGradlePlugin.sourcedNameOf(test, "compileFlix"), FlixCompile.class);
+        compileTestFlix.configure(task -> task.getTestIndex().convention(project.getLayout().getBuildDirectory().file("flix-test/index.properties")));
+        var testFlix = project.getTasks().register("testFlix", FlixTest.class, task -> {
+            task.getFlixInput().from(compileTestFlix.map(AbstractFlixCompile::getFlixInput));
+            task.getSource().from(compileTestFlix.map(AbstractFlixCompile::getSource));
+            task.getTestIndex().set(compileTestFlix.flatMap(FlixCompile::getTestIndex));
+            task.getTestClasses().from(compileTestFlix.flatMap(FlixCompile::getDestinationDirectory));
+            task.getReportDirectory().convention(project.getLayout().getBuildDirectory().dir("test-results/testFlix"));
+            task.getDurationsFile().convention(project.getLayout().getBuildDirectory().file("flix-test/durations.properties"));
+            task.setDescription("Runs the flix tests of this project");
+            task.setGroup("verification");
+        });
+        project.getTasks().named("check", task -> task.dependsOn(testFlix));
+    }
+
+    /**
+     * Adds a {@code benchmark} source set, whose flix sources are compiled together with those of the main source set,
+     * and a {@code flixBenchmark} task that runs the benchmarks in it. Benchmark functions are those marked
+     * {@code @Test} in that source set.
+     */
+    public void benchmarks() {
+        JavaPluginExtension javaPluginExtension = project.getExtensions().getByType(JavaPluginExtension.class);
+        SourceSetContainer sourceSets = javaPluginExtension.getSourceSets();
+        var main = sourceSets.getByName("main");
+        var benchmark = sourceSets.maybeCreate("benchmark");
+        var mainFlixSource = (SourceDirectorySet) main.getExtensions().getByName("flix");
+        var benchmarkFlixSource = (SourceDirectorySet) benchmark.getExtensions().getByName("flix");
+
+        ConfigurationContainer configurations = project.getConfigurations();
+        configurations.maybeCreate(FlixGradlePlugin.sourcedNameOf(benchmark, "flix"))
+            .extendsFrom(configurations.maybeCreate(FlixGradlePlugin.sourcedNameOf(main, "flix")));
+        var flixClasspath = configurations.getByName(FlixGradlePlugin.sourcedNameOf(benchmark, FlixGradlePlugin.FLIX_CLASSPATH_CONFIGURATION_NAME));
+
+        project.getTasks().register("flixBenchmark", FlixBenchmark.class, task -> {
+            task.getFlixInput().from(flixClasspath);
+            task.getSource().from(mainFlixSource.getSourceDirectories(), benchmarkFlixSource.getSourceDirectories());
+            task.getResultsFile().convention(project.getLayout().getBuildDirectory().file("reports/flix/benchmark/results.json"));
             task.getOutputs().upToDateWhen(t -> false);
+            task.setDescription("Runs the flix benchmarks of this project");
+            task.setGroup("verification");
         });
     }
 
@@ -175,7 +248,7 @@ public void withDocs() {
 
         project.getTasks().register("documentFlix", FlixDocumentor.class, task -> {
             task.getFlixInput().from(flixClasspath);
-            task.getSource().set(flixSource.getSourceDirectories());
+            task.getSource().from(flixSource.getSourceDirectories());
             task.getDestinationDirectory().set(project.getLayout().getBuildDirectory().dir("flixdocs"));
         });
     }
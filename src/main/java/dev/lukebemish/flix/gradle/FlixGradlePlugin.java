@@ -2,15 +2,24 @@
 
 import dev.lukebemish.flix.gradle.dependencies.RepositoryLayer;
 import dev.lukebemish.flix.gradle.dependencies.ResolutionSetup;
+import dev.lukebemish.flix.gradle.dependencies.StaticRepositoryClosure;
 import dev.lukebemish.flix.gradle.task.FlixToml;
+import dev.lukebemish.flix.gradle.task.FlixVendor;
 import dev.lukebemish.flix.gradle.task.Fpkg;
 import org.apache.commons.lang3.StringUtils;
+import org.gradle.api.Named;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
 import org.gradle.api.artifacts.Dependency;
-import org.gradle.api.artifacts.ResolvedDependency;
+import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.result.ResolvedComponentResult;
+import org.gradle.api.artifacts.result.ResolvedDependencyResult;
+import org.gradle.api.artifacts.result.ResolvedVariantResult;
+import org.gradle.api.attributes.Attribute;
 import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
 import org.gradle.api.attributes.Bundling;
 import org.gradle.api.attributes.Category;
@@ -32,8 +41,13 @@
 import org.jetbrains.annotations.NotNull;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.TreeSet;
 
 @SuppressWarnings("UnstableApiUsage")
 public abstract class FlixGradlePlugin implements Plugin<Project> {
@@ -42,6 +56,11 @@ public abstract class FlixGradlePlugin implements Plugin<Project> {
     public static final String FPKG_ELEMENT = "fpkg";
     public static final String FLIX_CLASSES_ELEMENT = "flix-classes";
 
+    public static final String VENDOR_DIRECTORY_PROPERTY = "dev.lukebemish.flix.vendorDir";
+    public static final String REPOSITORY_MODE_PROPERTY = "dev.lukebemish.flix.repository";
+    public static final String PROXY_REPOSITORY_MODE = "proxy";
+    public static final String FILE_REPOSITORY_MODE = "file";
+
     @Inject
     protected abstract FlowScope getFlowScope();
 
@@ -54,14 +73,6 @@ public void apply(@NotNull Project project) {
         project.getPluginManager().apply(JavaPlugin.class);
         var flixExtension = project.getExtensions().create("flix", FlixGradleExtension.class, project);
 
-        Provider<RepositoryLayer> repositoryLayer = project.getGradle().getSharedServices().registerIfAbsent("flixRepositoryLayer", RepositoryLayer.class, spec -> {});
-
-        getFlowScope().always(
-            ResolutionSetup.class,
-            spec ->
-                spec.getParameters().getShouldClose().set(getFlowProviders().getBuildWorkResult().map(result -> true))
-        );
-
         project.getRepositories().ivy(ivy -> {
             ivy.setUrl("https://github.com/flix/flix/releases/download/");
             ivy.setName("Flix Releases Repository");
@@ -77,13 +88,75 @@ public void apply(@NotNull Project project) {
             });
         });
 
-        project.getRepositories().ivy(ivy -> {
-            ivy.setUrl(repositoryLayer.get().url());
-            ivy.setName("flix.toml parsing repository");
-            ivy.metadataSources(IvyArtifactRepository.MetadataSources::gradleMetadata);
-            ivy.setAllowInsecureProtocol(true);
-            ivy.content(content -> content.includeGroup("github"));
-        });
+        File cacheDirectory = new File(project.getGradle().getGradleUserHomeDir(), "caches/flix-gradle");
+        File vendorDirectory = project.getProviders().gradleProperty(VENDOR_DIRECTORY_PROPERTY)
+            .map(path -> project.getRootProject().file(path))
+            .getOrElse(new File(project.getRootDir(), "flix-vendor"));
+        String repositoryMode = project.getProviders().gradleProperty(REPOSITORY_MODE_PROPERTY).getOrElse(PROXY_REPOSITORY_MODE);
+        boolean vendored = vendorDirectory.isDirectory();
+        if (vendored) {
+            // Packages written by flixVendor resolve from disk; the repository below is only asked for packages that
+            // were declared since, so the repository layer is not started for anything vendored
+            project.getRepositories().ivy(ivy -> {
+                ivy.setUrl(vendorDirectory.toURI());
+                ivy.setName("Vendored flix package repository");
+                ivy.metadataSources(IvyArtifactRepository.MetadataSources::gradleMetadata);
+                ivy.content(content -> content.includeGroup("github"));
+            });
+        }
+        if (FILE_REPOSITORY_MODE.equals(repositoryMode)) {
+            File repositoryDirectory = new File(cacheDirectory, "repository");
+            project.getRepositories().ivy(ivy -> {
+                ivy.setUrl(repositoryDirectory.toURI());
+                ivy.setName("flix.toml file repository");
+                ivy.metadataSources(IvyArtifactRepository.MetadataSources::gradleMetadata);
+                ivy.content(content -> content.includeGroup("github"));
+            });
+            // Gradle cannot ask for a module that is missing, so the closure of the packages declared here is written
+            // out before anything is resolved. Each project writes its own, so those reached through project
+            // dependencies are covered by the projects that declare them.
+            project.afterEvaluate(p -> project.getProviders().of(StaticRepositoryClosure.class, spec -> {
+                spec.getParameters().getModules().set(declaredGithubModules(project.getConfigurations()));
+                spec.getParameters().getRepositoryDirectory().set(repositoryDirectory);
+                spec.getParameters().getCacheDirectory().set(cacheDirectory);
+                if (vendored) {
+                    spec.getParameters().getVendorDirectory().set(vendorDirectory);
+                }
+            }).get());
+        } else if (PROXY_REPOSITORY_MODE.equals(repositoryMode)) {
+            Provider<RepositoryLayer> repositoryLayer = project.getGradle().getSharedServices().registerIfAbsent("flixRepositoryLayer", RepositoryLayer.class, spec ->
+                spec.getParameters().getCacheDirectory().set(cacheDirectory)
+            );
+
+            getFlowScope().always(
+                ResolutionSetup.class,
+                spec -> {
+                    spec.getParameters().getShouldClose().set(getFlowProviders().getBuildWorkResult().map(result -> true));
+                    spec.getParameters().getSummaryFile().set(
+                        project.getRootProject().getLayout().getBuildDirectory().file("reports/flix/repository-layer.json").map(file -> file.getAsFile().getAbsolutePath())
+                    );
+                }
+            );
+
+            // Gradle asks for the URL of the repository on every resolution, and only learns whether it needs it from
+            // the graph; dependency rules see each dependency before it is requested, so they start the layer
+            project.getConfigurations().configureEach(configuration -> configuration.getResolutionStrategy().eachDependency(details -> {
+                if ("github".equals(details.getRequested().getGroup())) {
+                    repositoryLayer.get().start();
+                }
+            }));
+
+            project.getRepositories().ivy(ivy -> {
+                // Names a free port without binding it; see RepositoryLayer
+                ivy.setUrl(repositoryLayer.map(RepositoryLayer::url));
+                ivy.setName("flix.toml parsing repository");
+                ivy.metadataSources(IvyArtifactRepository.MetadataSources::gradleMetadata);
+                ivy.setAllowInsecureProtocol(true);
+                ivy.content(content -> content.includeGroup("github"));
+            });
+        } else {
+            throw new RuntimeException("Unknown flix repository mode " + repositoryMode + ", expected " + PROXY_REPOSITORY_MODE + " or " + FILE_REPOSITORY_MODE);
+        }
 
         project.getDependencies().attributesSchema(schema -> {
             var matching = schema.getMatchingStrategy(LibraryElements.LIBRARY_ELEMENTS_ATTRIBUTE);
@@ -94,6 +167,13 @@ public void apply(@NotNull Project project) {
         JavaPluginExtension javaPluginExtension = project.getExtensions().getByType(JavaPluginExtension.class);
         SourceSetContainer sourceSets = javaPluginExtension.getSourceSets();
 
+        var flixVendorTask = project.getTasks().register("flixVendor", FlixVendor.class, flixVendor -> {
+            flixVendor.setGroup("Build Setup");
+            flixVendor.setDescription("Downloads the flix packages of all source sets into a local repository");
+            flixVendor.getVendorDirectory().set(vendorDirectory);
+            flixVendor.getCacheDirectory().set(cacheDirectory);
+        });
+
         sourceSets.all(sourceSet -> {
             var flixSource = getFlixSourceDirectorySet(sourceSet);
             sourceSet.getExtensions().add(SourceDirectorySet.class, "flix", flixSource);
@@ -123,6 +203,10 @@ public void apply(@NotNull Project project) {
             flixClasspath.extendsFrom(flix);
             flixClasspath.setCanBeResolved(true);
             flixClasspath.setCanBeDeclared(false);
+
+            flixVendorTask.configure(flixVendor ->
+                flixVendor.getModules().addAll(flixClasspath.getIncoming().getResolutionResult().getRootComponent().map(FlixGradlePlugin::githubModules))
+            );
         });
 
         BasePluginExtension basePluginExtension = project.getExtensions().getByType(BasePluginExtension.class);
@@ -161,11 +245,17 @@ public void apply(@NotNull Project project) {
         var flixClasspath = project.getConfigurations().getByName(sourcedNameOf(main, FLIX_CLASSPATH_CONFIGURATION_NAME));
 
         var flixTomlTask = project.getTasks().register("flixToml", FlixToml.class, flixToml -> {
-            var artifacts = project.provider(() -> flixClasspath.getResolvedConfiguration().getFirstLevelModuleDependencies().stream().toList());
-            flixToml.getDependencyArtifactIds().set(artifacts.map(it -> it.stream().map(i -> i.getModule().getId()).toList()));
-            flixToml.getDependencyArtifactsAreFpkg().set(artifacts.map(it -> it.stream().map(i -> i.getModuleArtifacts().stream().anyMatch(ar -> ar.getFile().getName().endsWith(".fpkg"))).toList()));
+            var firstLevel = flixClasspath.getIncoming().getResolutionResult().getRootComponent().map(FlixGradlePlugin::firstLevelDependencies);
+            flixToml.getDependencyArtifactIds().set(firstLevel.map(it -> it.stream().map(dependency -> dependency.getSelected().getModuleVersion()).toList()));
+            flixToml.getDependencyArtifactsAreFpkg().set(firstLevel.map(it -> it.stream().map(dependency -> isFpkg(dependency.getResolvedVariant())).toList()));
             flixToml.dependsOn(flixClasspath);
             flixToml.getDestinationFile().set(basePluginExtension.getLibsDirectory().file("flix.toml"));
+            flixToml.getPackageVersion().convention(project.provider(() ->
+                project.getVersion() == "unspecified" ? null : project.getVersion().toString()
+            ));
+            flixToml.getPackageName().convention(basePluginExtension.getArchivesName());
+            flixToml.getPackageModules().convention(basePluginExtension.getArchivesName().map(List::of));
+            flixToml.getPackageDescription().convention(project.provider(project::getDescription));
         });
 
         var fpkgTask = project.getTasks().register("fpkg", Fpkg.class, fpkg -> {
@@ -173,13 +263,13 @@ public void apply(@NotNull Project project) {
             fpkg.dependsOn(flixSourceDirectorySet);
             fpkg.dependsOn(flixTomlTask);
             fpkg.into("src", spec -> spec.from(flixSourceDirectorySet.getSourceDirectories()));
-            fpkg.from(flixTomlTask.get().getDestinationFile());
+            fpkg.from(flixTomlTask.flatMap(FlixToml::getDestinationFile));
             fpkg.setGroup("Build");
             fpkg.setDescription("Builds a Flix package");
             fpkg.getArchiveFileName().set(basePluginExtension.getArchivesName().map(name -> name + ".fpkg"));
             fpkg.getDestinationDirectory().set(basePluginExtension.getLibsDirectory());
         });
-        project.getTasks().getByName("assemble").dependsOn(fpkgTask);
+        project.getTasks().named("assemble", task -> task.dependsOn(fpkgTask));
 
         project.getArtifacts().add(fpkgElements.getName(), fpkgTask, artifact -> {
             artifact.setExtension("fpkg");
@@ -194,16 +284,101 @@ static String sourcedNameOf(SourceSet sourceSet, String baseName) {
         return StringUtils.uncapitalize(sourceSetBaseName + StringUtils.capitalize(baseName));
     }
 
-    static Stream<Dependency> processDependencies(Project project, Set<ResolvedDependency> deps) {
-        return deps.stream().flatMap(dep -> {
-            var artifacts = dep.getModuleArtifacts();
-            Stream<Dependency> children = processDependencies(project, dep.getChildren());
-            if (!artifacts.stream().allMatch(artifact -> "fpkg".equals(artifact.getExtension()))) {
-                var outDep = project.getDependencies().create(dep.getModule().toString());
-                return Stream.concat(Stream.of(outDep), children);
+    /**
+     * @return a dependency on every module in the graph below the root that is not a Flix package, in the order they
+     * are first reached
+     */
+    static List<Dependency> processDependencies(DependencyHandler dependencies, ResolvedComponentResult root) {
+        List<Dependency> out = new ArrayList<>();
+        Set<ResolvedComponentResult> visited = new HashSet<>();
+        visited.add(root);
+        var stack = new ArrayDeque<ResolvedDependencyResult>();
+        pushDependencies(stack, root);
+        while (!stack.isEmpty()) {
+            var dependency = stack.pop();
+            var component = dependency.getSelected();
+            if (!visited.add(component)) {
+                continue;
             }
-            return children;
-        });
+            if (!isFpkg(dependency.getResolvedVariant()) && component.getModuleVersion() != null) {
+                out.add(dependencies.create(component.getModuleVersion().toString()));
+            }
+            pushDependencies(stack, component);
+        }
+        return out;
+    }
+
+    private static void pushDependencies(ArrayDeque<ResolvedDependencyResult> stack, ResolvedComponentResult component) {
+        var children = firstLevelDependencies(component);
+        for (int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
+        }
+    }
+
+    static List<ResolvedDependencyResult> firstLevelDependencies(ResolvedComponentResult component) {
+        Set<ResolvedComponentResult> seen = new HashSet<>();
+        List<ResolvedDependencyResult> dependencies = new ArrayList<>();
+        for (var dependency : component.getDependencies()) {
+            if (dependency instanceof ResolvedDependencyResult resolved && !resolved.isConstraint() && seen.add(resolved.getSelected())) {
+                dependencies.add(resolved);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return whether the variant selected for a dependency is a Flix package, going by its library elements
+     */
+    static boolean isFpkg(ResolvedVariantResult variant) {
+        var attributes = variant.getAttributes();
+        for (Attribute<?> attribute : attributes.keySet()) {
+            if (attribute.getName().equals(LibraryElements.LIBRARY_ELEMENTS_ATTRIBUTE.getName())) {
+                // Attributes read back from metadata may be plain strings rather than the named type
+                Object value = attributes.getAttribute(attribute);
+                return FPKG_ELEMENT.equals(value instanceof Named named ? named.getName() : String.valueOf(value));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return every {@code github} module in the graph below the root, as {@code user/repository:version}
+     */
+    static Set<String> githubModules(ResolvedComponentResult root) {
+        Set<String> modules = new TreeSet<>();
+        Set<ResolvedComponentResult> visited = new HashSet<>();
+        var queue = new ArrayDeque<ResolvedComponentResult>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            var component = queue.poll();
+            if (!visited.add(component)) {
+                continue;
+            }
+            if (component.getId() instanceof ModuleComponentIdentifier id && "github".equals(id.getGroup())) {
+                modules.add(id.getModule() + ":" + id.getVersion());
+            }
+            for (var dependency : component.getDependencies()) {
+                if (dependency instanceof ResolvedDependencyResult resolved) {
+                    queue.add(resolved.getSelected());
+                }
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * @return every {@code github} module declared on any of the configurations, as {@code user/repository:version}
+     */
+    static Set<String> declaredGithubModules(ConfigurationContainer configurations) {
+        Set<String> modules = new TreeSet<>();
+        for (Configuration configuration : configurations) {
+            for (var dependency : configuration.getDependencies().withType(ExternalModuleDependency.class)) {
+                if ("github".equals(dependency.getGroup()) && dependency.getVersion() != null) {
+                    modules.add(dependency.getName() + ":" + dependency.getVersion());
+                }
+            }
+        }
+        return modules;
     }
 
     private SourceDirectorySet getFlixSourceDirectorySet(SourceSet sourceSet) {
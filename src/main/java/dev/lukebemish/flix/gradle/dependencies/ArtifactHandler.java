@@ -3,21 +3,33 @@
 import com.moandjiezana.toml.Toml;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import groovy.json.JsonOutput;
 import groovy.json.StringEscapeUtils;
 import org.jetbrains.annotations.ApiStatus;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @ApiStatus.Internal
 public class ArtifactHandler implements HttpHandler {
+    private final MetadataCache metadataCache;
+    private final UpstreamClient upstream;
+    private final FpkgMirror mirror;
+
+    /**
+     * @param mirror where to serve release assets from, or null to redirect to upstream instead
+     */
+    ArtifactHandler(MetadataCache metadataCache, UpstreamClient upstream, FpkgMirror mirror) {
+        this.metadataCache = metadataCache;
+        this.upstream = upstream;
+        this.mirror = mirror;
+    }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
@@ -32,40 +44,77 @@ public void handle(HttpExchange exchange) throws IOException {
         String repository = parts[1];
         String version = parts[2];
         String artifact = parts[4];
+        LayerMetrics metrics = upstream.metrics();
         if (artifact.equals(repository+"-"+version+".module")) {
-            String flixToml = "https://github.com/" + user + "/" + repository + "/releases/download/v" + version + "/flix.toml";
-            URL url = new URL(flixToml);
-            if (exchange.getRequestMethod().equals("HEAD")) {
-                var connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("HEAD");
-                if (connection.getResponseCode() == 200) {
-                    exchange.sendResponseHeaders(200, -1);
+            metrics.request(LayerMetrics.ENDPOINT_MODULE);
+            String method = exchange.getRequestMethod();
+            if (method.equals("HEAD") || method.equals("GET")) {
+                try {
+                    Optional<byte[]> metadata = metadataCache.metadata(user, repository, version);
+                    if (metadata.isEmpty()) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else if (method.equals("HEAD")) {
+                        exchange.sendResponseHeaders(200, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, metadata.get().length);
+                        exchange.getResponseBody().write(metadata.get());
+                        metrics.served(metadata.get().length);
+                    }
                     exchange.close();
                     return;
+                } catch (IOException e) {
+                    metrics.error(LayerMetrics.ENDPOINT_MODULE);
+                    FpkgRepositoryLayer.LOGGER.warn("Could not fetch metadata of {}/{} {}", user, repository, version, e);
                 }
-            } else if (exchange.getRequestMethod().equals("GET")) {
-                try (var stream = new BufferedInputStream(url.openStream())) {
-                    var toml = new Toml().read(stream);
-                    Map<String, Object> moduleMetadata = makeModuleMetadata(user, repository, version, toml);
-                    var body = JsonOutput.prettyPrint(JsonOutput.toJson(moduleMetadata));
-                    exchange.sendResponseHeaders(200, 0);
-                    exchange.getResponseBody().write(body.getBytes());
-                    exchange.close();
-                    return;
-                } catch (IOException ignored) {}
             } else {
                 exchange.sendResponseHeaders(405, -1);
                 exchange.close();
                 return;
             }
         }
-        String out = "https://github.com/"+user+"/"+repository+"/releases/download/v"+version+"/"+artifact;
+        if (mirror != null && !artifact.endsWith(".module")) {
+            String method = exchange.getRequestMethod();
+            if (method.equals("HEAD") || method.equals("GET")) {
+                metrics.request(LayerMetrics.ENDPOINT_MIRROR);
+                try {
+                    Path stored = mirror.asset(user, repository, version, artifact);
+                    if (stored == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    try (FileChannel channel = CacheFiles.open(stored)) {
+                        long size = channel.size();
+                        if (method.equals("HEAD")) {
+                            exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+                            exchange.sendResponseHeaders(200, -1);
+                        } else {
+                            exchange.sendResponseHeaders(200, size);
+                            // The exchange only offers a stream, so this still copies through a buffer rather than
+                            // handing the file to the socket; it does keep the asset out of the heap
+                            var body = Channels.newChannel(exchange.getResponseBody());
+                            for (long position = 0; position < size; ) {
+                                position += channel.transferTo(position, size - position, body);
+                            }
+                            metrics.served(size);
+                        }
+                    }
+                    exchange.close();
+                    return;
+                } catch (IOException e) {
+                    metrics.error(LayerMetrics.ENDPOINT_MIRROR);
+                    FpkgRepositoryLayer.LOGGER.warn("Could not mirror {} of {}/{} {}, redirecting instead", artifact, user, repository, version, e);
+                }
+            }
+        }
+        metrics.request(LayerMetrics.ENDPOINT_REDIRECT);
+        String out = upstream.releaseAsset(user, repository, version, artifact).toString();
         exchange.getResponseHeaders().put("Location", List.of(out));
         exchange.sendResponseHeaders(302, -1);
         exchange.close();
     }
 
-    private static Map<String, Object> makeModuleMetadata(String user, String repository, String version, Toml toml) {
+    static Map<String, Object> makeModuleMetadata(String user, String repository, String version, Toml toml) {
         Map<String, Object> metadata = new LinkedHashMap<>();
         metadata.put("formatVersion", "1.1");
         metadata.put("component", Map.of(
@@ -0,0 +1,34 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads of the plugin's own caches. While Gradle computes a configuration cache entry, it records every file plugin code
+ * reads as an input of the entry, on whatever thread; dependencies resolved then go through the repository layer, which
+ * writes these caches as it answers, so the entry would be discarded by the next build. The caches are no more an
+ * input of the configuration than Gradle's own dependency cache is, so they are read through calls Gradle does not
+ * record.
+ */
+final class CacheFiles {
+    private CacheFiles() {}
+
+    static boolean exists(Path file) {
+        return Files.isReadable(file);
+    }
+
+    static byte[] read(Path file) throws IOException {
+        try (var input = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] contents = new byte[Math.toIntExact(input.length())];
+            input.readFully(contents);
+            return contents;
+        }
+    }
+
+    static FileChannel open(Path file) throws IOException {
+        return new RandomAccessFile(file.toFile(), "r").getChannel();
+    }
+}
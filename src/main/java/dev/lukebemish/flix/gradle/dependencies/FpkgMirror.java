@@ -0,0 +1,246 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Release assets fetched once and served from disk afterwards. Assets are stored by the SHA-256 of their content, with
+ * an index from release coordinates to hashes, and the least recently served are evicted once the store grows past its
+ * size limit. Upstream publishes no digest to check a download against, so the hash only catches objects damaged on
+ * disk after they were stored.
+ */
+final class FpkgMirror {
+    private final Path objects;
+    private final Path index;
+    private final UpstreamClient upstream;
+    private final long maxBytes;
+    private final Set<String> rehashed = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // Bytes in the store as of the last walk, plus those fetched since; other builds sharing the store are only
+    // accounted for at the next walk, which eviction does anyway
+    private final Object sizeLock = new Object();
+    private long storedBytes = -1;
+
+    FpkgMirror(Path directory, UpstreamClient upstream, long maxBytes) {
+        this.objects = directory.resolve("objects");
+        this.index = directory.resolve("index");
+        this.upstream = upstream;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the stored asset, or null if upstream does not have it
+     */
+    Path asset(String user, String repository, String version, String asset) throws IOException {
+        Path indexFile = index.resolve(user).resolve(repository).resolve(version).resolve(asset + ".properties");
+        Path stored = lookup(indexFile);
+        if (stored != null) {
+            upstream.metrics().cacheHit(LayerMetrics.CACHE_MIRROR);
+            return stored;
+        }
+        upstream.metrics().cacheMiss(LayerMetrics.CACHE_MIRROR);
+
+        String key = user + "/" + repository + "/" + version + "/" + asset;
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw e;
+            }
+        }
+        try {
+            Path fetched = fetch(user, repository, version, asset, indexFile);
+            future.complete(fetched);
+            return fetched;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Path lookup(Path indexFile) throws IOException {
+        if (!CacheFiles.exists(indexFile)) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try {
+            entry.load(new StringReader(new String(CacheFiles.read(indexFile), StandardCharsets.UTF_8)));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        String hash = entry.getProperty("sha256");
+        String size = entry.getProperty("size");
+        if (hash == null || size == null) {
+            return null;
+        }
+        Path object = objectPath(hash);
+        if (!CacheFiles.exists(object) || Files.size(object) != Long.parseLong(size)) {
+            return null;
+        }
+        // Hash each object again once per server, in case it was damaged on disk
+        if (!rehashed.contains(hash)) {
+            if (!hash.equals(sha256(object))) {
+                FpkgRepositoryLayer.LOGGER.warn("Mirrored object {} no longer matches its hash, fetching it again", object);
+                long damaged = Files.size(object);
+                if (Files.deleteIfExists(object)) {
+                    added(-damaged);
+                }
+                return null;
+            }
+            rehashed.add(hash);
+        }
+        // The modification time orders objects for eviction
+        Files.setLastModifiedTime(object, FileTime.fromMillis(System.currentTimeMillis()));
+        return object;
+    }
+
+    private Path fetch(String user, String repository, String version, String asset, Path indexFile) throws IOException {
+        Files.createDirectories(objects);
+        Path temp = Files.createTempFile(objects, "download", ".tmp");
+        try {
+            var request = upstream.request(upstream.releaseAsset(user, repository, version, asset)).GET().build();
+            HttpResponse<Path> response = upstream.send(request, HttpResponse.BodyHandlers.ofFile(temp));
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            } else if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + response.statusCode() + " for " + request.uri());
+            }
+
+            String hash = sha256(temp);
+            long size = Files.size(temp);
+            Path object = objectPath(hash);
+            Files.createDirectories(object.getParent());
+            try {
+                Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+                added(size);
+            } catch (FileAlreadyExistsException ignored) {
+                // Same content under other coordinates, or fetched by another build
+            }
+            rehashed.add(hash);
+
+            Properties entry = new Properties();
+            entry.setProperty("sha256", hash);
+            entry.setProperty("size", Long.toString(size));
+            Files.createDirectories(indexFile.getParent());
+            StringWriter writer = new StringWriter();
+            entry.store(writer, null);
+            Path indexTemp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(indexTemp, writer.toString(), StandardCharsets.UTF_8);
+                Files.move(indexTemp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(indexTemp);
+            }
+
+            evict(object);
+            return object;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void added(long bytes) throws IOException {
+        synchronized (sizeLock) {
+            if (storedBytes < 0) {
+                storedBytes = walk(new ArrayList<>());
+            } else {
+                storedBytes += bytes;
+            }
+        }
+    }
+
+    private void evict(Path keep) throws IOException {
+        synchronized (sizeLock) {
+            if (storedBytes <= maxBytes) {
+                return;
+            }
+            // Only walk the store once the running size says it may be over the limit
+            List<Stored> stored = new ArrayList<>();
+            long total = walk(stored);
+            stored.sort(Comparator.comparing(Stored::lastModified));
+            for (Stored object : stored) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (object.path().equals(keep)) {
+                    continue;
+                }
+                // Index entries pointing here are found stale on lookup, and fetched again
+                if (Files.deleteIfExists(object.path())) {
+                    total -= object.size();
+                }
+            }
+            storedBytes = total;
+        }
+    }
+
+    private record Stored(Path path, long size, FileTime lastModified) {}
+
+    /**
+     * @return the total size of the objects in the store, each of which is added to the given list
+     */
+    private long walk(List<Stored> stored) throws IOException {
+        long[] total = {0};
+        Files.walkFileTree(objects, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && !file.getFileName().toString().endsWith(".tmp")) {
+                    stored.add(new Stored(file, attributes.size(), attributes.lastModifiedTime()));
+                    total[0] += attributes.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    private Path objectPath(String hash) {
+        return objects.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream stream = new DigestInputStream(Channels.newInputStream(CacheFiles.open(file)), digest)) {
+                stream.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -2,15 +2,26 @@
 
 import com.sun.net.httpserver.HttpServer;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @ApiStatus.Internal
@@ -22,7 +33,19 @@ public final class FpkgRepositoryLayer {
     static final String PROXY_PORT_ENV_NAME = "FLIX_GRADLE_PROXY_PORT";
     static final String PROXY_PORT_PROP_NAME = "dev.lukebemish.flix.proxy.port";
 
+    static final String PROXY_CONCURRENCY_ENV_NAME = "FLIX_GRADLE_PROXY_CONCURRENCY";
+    static final String PROXY_CONCURRENCY_PROP_NAME = "dev.lukebemish.flix.proxy.concurrency";
+
+    static final String PROXY_PREFETCH_ENV_NAME = "FLIX_GRADLE_PROXY_PREFETCH";
+    static final String PROXY_PREFETCH_PROP_NAME = "dev.lukebemish.flix.proxy.prefetch";
+
+    static final String PROXY_MIRROR_ENV_NAME = "FLIX_GRADLE_PROXY_MIRROR";
+    static final String PROXY_MIRROR_PROP_NAME = "dev.lukebemish.flix.proxy.mirror";
+    static final String PROXY_MIRROR_SIZE_ENV_NAME = "FLIX_GRADLE_PROXY_MIRROR_SIZE";
+    static final String PROXY_MIRROR_SIZE_PROP_NAME = "dev.lukebemish.flix.proxy.mirror.size";
+
     public static final String HANDLER_PREFIX = "/github/";
+    public static final String METRICS_PATH = "/metrics";
 
     private static int getProxyPort() {
         return Optional.ofNullable(System.getenv(PROXY_PORT_ENV_NAME))
@@ -31,11 +54,42 @@ private static int getProxyPort() {
                 .orElse(7348);
     }
 
+    private static int getProxyConcurrency() {
+        return Optional.ofNullable(System.getenv(PROXY_CONCURRENCY_ENV_NAME))
+                .or(() -> Optional.ofNullable(System.getProperty(PROXY_CONCURRENCY_PROP_NAME)))
+                .map(Integer::valueOf)
+                .orElse(64);
+    }
+
+    private static int getProxyPrefetch() {
+        return Optional.ofNullable(System.getenv(PROXY_PREFETCH_ENV_NAME))
+                .or(() -> Optional.ofNullable(System.getProperty(PROXY_PREFETCH_PROP_NAME)))
+                .map(Integer::valueOf)
+                .orElse(4);
+    }
+
+    private static boolean getProxyMirror() {
+        return Optional.ofNullable(System.getenv(PROXY_MIRROR_ENV_NAME))
+                .or(() -> Optional.ofNullable(System.getProperty(PROXY_MIRROR_PROP_NAME)))
+                .map(Boolean::parseBoolean)
+                .orElse(false);
+    }
+
+    /**
+     * @return the size limit of the mirror, in bytes; configured in MiB
+     */
+    private static long getProxyMirrorSize() {
+        return Optional.ofNullable(System.getenv(PROXY_MIRROR_SIZE_ENV_NAME))
+                .or(() -> Optional.ofNullable(System.getProperty(PROXY_MIRROR_SIZE_PROP_NAME)))
+                .map(Long::valueOf)
+                .orElse(1024L) * 1024 * 1024;
+    }
+
     public static void main(String[] args) {
         Object lock = new Object();
         Thread thread = new Thread(() -> {
             synchronized (lock) {
-                try (LayerServer server = startServer()) {
+                try (LayerServer server = startServer(defaultCacheDirectory())) {
                     System.out.println("Listening on: " + server.uri());
                     lock.wait();
                 } catch (InterruptedException e) {
@@ -53,19 +107,122 @@ public static void main(String[] args) {
         }
     }
 
-    public static LayerServer startServer() throws IOException {
-        var httpServer = HttpServer.create();
-        httpServer.createContext(HANDLER_PREFIX, new ArtifactHandler());
+    private static Path defaultCacheDirectory() {
+        Path gradleUserHome = Optional.ofNullable(System.getenv("GRADLE_USER_HOME"))
+                .map(Path::of)
+                .orElseGet(() -> Path.of(System.getProperty("user.home"), ".gradle"));
+        return gradleUserHome.resolve("caches/flix-gradle");
+    }
 
+    public static LayerServer startServer(Path cacheDirectory) throws IOException {
         while (true) {
             try {
-                int proxyPort = getProxyPort() + PORT_INCREMENT.getAndIncrement();
-                return startOnPort(proxyPort, httpServer);
-            } catch (BindException ignored) {}
+                return startServer(cacheDirectory, getProxyPort() + PORT_INCREMENT.getAndIncrement());
+            } catch (BindException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Starts the layer on exactly the given port, as picked by {@link #freePort()}.
+     */
+    public static LayerServer startServer(Path cacheDirectory, int port) throws IOException {
+        var httpServer = HttpServer.create();
+        var metrics = new LayerMetrics();
+        var backend = new Backend(cacheDirectory, metrics);
+        httpServer.createContext(HANDLER_PREFIX, exchange -> backend.handler().handle(exchange));
+        httpServer.createContext(METRICS_PATH, exchange -> {
+            metrics.request(LayerMetrics.ENDPOINT_METRICS);
+            byte[] body = metrics.exposition().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // Handlers block on GitHub, so each request needs its own thread for resolution to proceed in parallel
+        ExecutorService executor = newRequestExecutor(getProxyConcurrency());
+        httpServer.setExecutor(executor);
+
+        try {
+            return startOnPort(port, httpServer, executor, backend, metrics);
+        } catch (IOException | RuntimeException e) {
+            executor.shutdownNow();
+            backend.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a port the layer can be started on, found as {@link #startServer(Path)} would, but left unbound
+     */
+    public static int freePort() {
+        while (true) {
+            int port = getProxyPort() + PORT_INCREMENT.getAndIncrement();
+            try (var socket = new ServerSocket()) {
+                socket.bind(new InetSocketAddress(port));
+                return port;
+            } catch (BindException ignored) {
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static ExecutorService newRequestExecutor(int concurrency) {
+        try {
+            // Virtual threads are only available from Java 21, while Gradle may run on an older JVM
+            var virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Semaphore permits = new Semaphore(concurrency);
+            return new AbstractExecutorService() {
+                @Override
+                public void execute(@NotNull Runnable command) {
+                    virtual.execute(() -> {
+                        permits.acquireUninterruptibly();
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }
+
+                @Override
+                public void shutdown() {
+                    virtual.shutdown();
+                }
+
+                @NotNull
+                @Override
+                public List<Runnable> shutdownNow() {
+                    return virtual.shutdownNow();
+                }
+
+                @Override
+                public boolean isShutdown() {
+                    return virtual.isShutdown();
+                }
+
+                @Override
+                public boolean isTerminated() {
+                    return virtual.isTerminated();
+                }
+
+                @Override
+                public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+                    return virtual.awaitTermination(timeout, unit);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "flix-repository-layer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
         }
     }
 
-    private static LayerServer startOnPort(int port, HttpServer httpServer) throws IOException {
+    private static LayerServer startOnPort(int port, HttpServer httpServer, ExecutorService executor, Backend backend, LayerMetrics metrics) throws IOException {
         httpServer.bind(new InetSocketAddress(port), 0);
         httpServer.start();
 
@@ -75,17 +232,64 @@ public URI uri() {
                 return URI.create("http://localhost:" + port);
             }
 
+            @Override
+            public LayerMetrics metrics() {
+                return metrics;
+            }
+
             @Override
             public void close() {
                 httpServer.stop(2);
+                executor.shutdownNow();
+                backend.close();
             }
         };
 
     }
 
+    /**
+     * The upstream client and caches behind the package handler. Gradle asks for the URL of the repository whenever
+     * it builds resolvers, whether or not anything is then resolved from it, so these are only set up by the first
+     * request for a package.
+     */
+    private static final class Backend {
+        private final Path cacheDirectory;
+        private final LayerMetrics metrics;
+        private ArtifactHandler handler;
+        private MetadataCache metadataCache;
+        private boolean closed;
+
+        private Backend(Path cacheDirectory, LayerMetrics metrics) {
+            this.cacheDirectory = cacheDirectory;
+            this.metrics = metrics;
+        }
+
+        synchronized ArtifactHandler handler() {
+            if (closed) {
+                throw new IllegalStateException("The repository layer has already been closed");
+            }
+            if (handler == null) {
+                var upstream = new UpstreamClient(metrics);
+                metadataCache = new MetadataCache(cacheDirectory.resolve("metadata"), upstream, getProxyPrefetch());
+                var mirror = getProxyMirror() ? new FpkgMirror(cacheDirectory.resolve("mirror"), upstream, getProxyMirrorSize()) : null;
+                handler = new ArtifactHandler(metadataCache, upstream, mirror);
+            }
+            return handler;
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (metadataCache != null) {
+                metadataCache.close();
+            }
+        }
+    }
+
     public interface LayerServer extends Closeable {
         URI uri();
 
+        LayerMetrics metrics();
+
         void close();
     }
 
@@ -0,0 +1,38 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.util.function.Supplier;
+
+/**
+ * Groovy's JSON support, callable from any thread. Groovy loads a service it needs for JSON through the context class
+ * loader, once per daemon; on the threads of the repository layer, or those Gradle runs flow actions on, that loader
+ * cannot see it, and JSON would then fail for the rest of the daemon's life.
+ */
+final class Json {
+    private Json() {}
+
+    static String toJson(Object value) {
+        return withGroovyClassLoader(() -> JsonOutput.toJson(value));
+    }
+
+    static String toPrettyJson(Object value) {
+        return withGroovyClassLoader(() -> JsonOutput.prettyPrint(JsonOutput.toJson(value)));
+    }
+
+    static Object parse(String text) {
+        return withGroovyClassLoader(() -> new JsonSlurper().parseText(text));
+    }
+
+    private static <T> T withGroovyClassLoader(Supplier<T> action) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(JsonOutput.class.getClassLoader());
+        try {
+            return action.get();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the work done by one repository layer, exposed in the Prometheus text format on {@code /metrics} and
+ * summarised at the end of the build. Everything is a {@link LongAdder}, since handlers record from many threads at
+ * once.
+ */
+@ApiStatus.Internal
+public final class LayerMetrics {
+    static final String ENDPOINT_MODULE = "module";
+    static final String ENDPOINT_MIRROR = "mirror";
+    static final String ENDPOINT_REDIRECT = "redirect";
+    static final String ENDPOINT_METRICS = "metrics";
+
+    static final String CACHE_METADATA = "metadata";
+    static final String CACHE_MIRROR = "mirror";
+
+    // Upper bounds of the upstream latency buckets, in milliseconds
+    private static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> cacheHits = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> cacheMisses = new ConcurrentHashMap<>();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder upstreamRequests = new LongAdder();
+    private final LongAdder upstreamErrors = new LongAdder();
+    private final LongAdder upstreamRetries = new LongAdder();
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+    private final LongAdder latencySumMillis = new LongAdder();
+
+    LayerMetrics() {
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    void request(String endpoint) {
+        requests.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+    }
+
+    void error(String endpoint) {
+        errors.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+    }
+
+    void cacheHit(String cache) {
+        cacheHits.computeIfAbsent(cache, k -> new LongAdder()).increment();
+    }
+
+    void cacheMiss(String cache) {
+        cacheMisses.computeIfAbsent(cache, k -> new LongAdder()).increment();
+    }
+
+    void served(long bytes) {
+        bytesServed.add(bytes);
+    }
+
+    /**
+     * Records a finished upstream request, including any retries it took.
+     */
+    void upstream(long millis, boolean failed) {
+        upstreamRequests.increment();
+        if (failed) {
+            upstreamErrors.increment();
+        }
+        latencySumMillis.add(millis);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets[bucket].increment();
+    }
+
+    /**
+     * Records bytes of a response body as they are read from upstream.
+     */
+    void fetched(long bytes) {
+        bytesFetched.add(bytes);
+    }
+
+    void retry() {
+        upstreamRetries.increment();
+    }
+
+    public long totalRequests() {
+        return requests.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format
+     */
+    String exposition() {
+        var out = new StringBuilder();
+        counter(out, "flix_layer_requests_total", "Requests handled, by endpoint", "endpoint", requests);
+        counter(out, "flix_layer_errors_total", "Requests that failed, by endpoint", "endpoint", errors);
+        counter(out, "flix_layer_cache_hits_total", "Lookups answered from a cache, by cache", "cache", cacheHits);
+        counter(out, "flix_layer_cache_misses_total", "Lookups that went upstream, by cache", "cache", cacheMisses);
+        counter(out, "flix_layer_served_bytes_total", "Bytes of response bodies sent to Gradle", bytesServed.sum());
+        counter(out, "flix_layer_upstream_bytes_total", "Bytes of response bodies read from upstream", bytesFetched.sum());
+        counter(out, "flix_layer_upstream_errors_total", "Upstream requests that failed after all retries", upstreamErrors.sum());
+        counter(out, "flix_layer_upstream_retries_total", "Upstream attempts that were retried", upstreamRetries.sum());
+
+        out.append("# HELP flix_layer_upstream_latency_seconds Time taken by upstream requests, including retries\n");
+        out.append("# TYPE flix_layer_upstream_latency_seconds histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            cumulative += latencyBuckets[i].sum();
+            out.append("flix_layer_upstream_latency_seconds_bucket{le=\"").append(LATENCY_BUCKETS[i] / 1000.0).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += latencyBuckets[LATENCY_BUCKETS.length].sum();
+        out.append("flix_layer_upstream_latency_seconds_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append("flix_layer_upstream_latency_seconds_sum ").append(latencySumMillis.sum() / 1000.0).append('\n');
+        out.append("flix_layer_upstream_latency_seconds_count ").append(upstreamRequests.sum()).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * @return the metrics as a tree of maps and numbers, for writing as JSON
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", upstreamRequests.sum());
+        latency.put("totalMillis", latencySumMillis.sum());
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            buckets.put("le" + LATENCY_BUCKETS[i] + "ms", latencyBuckets[i].sum());
+        }
+        buckets.put("slower", latencyBuckets[LATENCY_BUCKETS.length].sum());
+        latency.put("buckets", buckets);
+
+        Map<String, Object> upstream = new LinkedHashMap<>();
+        upstream.put("requests", upstreamRequests.sum());
+        upstream.put("errors", upstreamErrors.sum());
+        upstream.put("retries", upstreamRetries.sum());
+        upstream.put("bytes", bytesFetched.sum());
+        upstream.put("latency", latency);
+
+        Map<String, Object> caches = new LinkedHashMap<>();
+        var names = new TreeSet<String>(cacheHits.keySet());
+        names.addAll(cacheMisses.keySet());
+        for (String name : names) {
+            long hits = sum(cacheHits, name);
+            long misses = sum(cacheMisses, name);
+            Map<String, Object> cache = new LinkedHashMap<>();
+            cache.put("hits", hits);
+            cache.put("misses", misses);
+            cache.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            caches.put(name, cache);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", sums(requests));
+        summary.put("errors", sums(errors));
+        summary.put("servedBytes", bytesServed.sum());
+        summary.put("caches", caches);
+        summary.put("upstream", upstream);
+        return summary;
+    }
+
+    private static long sum(Map<String, LongAdder> counters, String key) {
+        LongAdder adder = counters.get(key);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+        Map<String, Long> sums = new TreeMap<>();
+        counters.forEach((key, adder) -> sums.put(key, adder.sum()));
+        return sums;
+    }
+
+    private static void counter(StringBuilder out, String name, String help, String label, Map<String, LongAdder> counters) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        sums(counters).forEach((key, value) ->
+            out.append(name).append('{').append(label).append("=\"").append(key).append("\"} ").append(value).append('\n')
+        );
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
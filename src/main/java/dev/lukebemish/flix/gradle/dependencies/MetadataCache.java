@@ -0,0 +1,306 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import com.moandjiezana.toml.Toml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Module metadata generated from the {@code flix.toml} of GitHub releases, kept on disk between builds. A cache lives
+ * for one build, and revalidates each entry against the upstream ETag the first time the build asks for it; an
+ * unchanged release then costs a conditional request rather than a download, and one replaced upstream is picked up
+ * by the next build. Missing releases are remembered for a short while, so that a typo does not cost a round-trip on
+ * every resolution.
+ * <p>
+ * Recent answers are also held in memory, and concurrent lookups of the same release share a single fetch, since
+ * Gradle asks for the same module with a HEAD and a GET, and parallel resolution asks for popular packages at once.
+ * <p>
+ * Gradle only learns of the dependencies of a package once it has its metadata, so resolving a deep graph would cost a
+ * round-trip per level. Whenever metadata is generated, the metadata of its GitHub dependencies is therefore fetched
+ * in the background, so that it is usually ready by the time Gradle asks.
+ */
+final class MetadataCache {
+    static final Duration MISSING_EXPIRY = Duration.ofMinutes(10);
+    private static final int MAX_MEMORY_ENTRIES = 512;
+    private static final int MAX_PREFETCH_QUEUE = 256;
+
+    private record MemoryEntry(Optional<byte[]> metadata, long expiresAt) {}
+
+    /**
+     * What is on disk for a release.
+     *
+     * @param metadata the stored metadata, or null if there is none
+     * @param current whether the stored answer can be used without asking upstream, as it was checked during this
+     *                build or is a recent miss
+     */
+    record Stored(Properties entry, byte[] metadata, boolean current) {
+        Optional<byte[]> answer() {
+            return Optional.ofNullable(metadata);
+        }
+    }
+
+    private static final String STATUS_FOUND = "found";
+    private static final String STATUS_MISSING = "missing";
+
+    private final Path directory;
+    private final UpstreamClient upstream;
+    // Entries checked since the cache was created were checked by this build
+    private final long createdAt = System.currentTimeMillis();
+    private final Map<String, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MemoryEntry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<byte[]>>> inFlight = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor prefetcher;
+
+    /**
+     * @param prefetchParallelism the number of dependencies fetched in the background at once, or 0 to not prefetch
+     */
+    MetadataCache(Path directory, UpstreamClient upstream, int prefetchParallelism) {
+        this.directory = directory;
+        this.upstream = upstream;
+        if (prefetchParallelism > 0) {
+            AtomicInteger count = new AtomicInteger();
+            // Prefetching is only a head start, so work beyond what the queue holds is dropped rather than waited on
+            this.prefetcher = new ThreadPoolExecutor(
+                prefetchParallelism, prefetchParallelism,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_PREFETCH_QUEUE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "flix-metadata-prefetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy()
+            );
+            this.prefetcher.allowCoreThreadTimeOut(true);
+        } else {
+            this.prefetcher = null;
+        }
+    }
+
+    MetadataCache(Path directory, UpstreamClient upstream) {
+        this(directory, upstream, 0);
+    }
+
+    void close() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the module metadata of the given release, or empty if it has no {@code flix.toml}
+     */
+    Optional<byte[]> metadata(String user, String repository, String version) throws IOException {
+        return metadata(user, repository, version, null);
+    }
+
+    /**
+     * @param stored what {@link #stored} read of the release beforehand, or null to read it now
+     * @return the module metadata of the given release, or empty if it has no {@code flix.toml}
+     */
+    Optional<byte[]> metadata(String user, String repository, String version, Stored stored) throws IOException {
+        String key = user + "/" + repository + "/" + version;
+        synchronized (memory) {
+            MemoryEntry entry = memory.get(key);
+            if (entry != null && entry.expiresAt() > System.currentTimeMillis()) {
+                upstream.metrics().cacheHit(LayerMetrics.CACHE_METADATA);
+                return entry.metadata();
+            }
+        }
+
+        CompletableFuture<Optional<byte[]>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<byte[]>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            Optional<byte[]> metadata = load(user, repository, version, stored != null ? stored : stored(user, repository, version));
+            long expiresAt = metadata.isPresent() ? Long.MAX_VALUE : System.currentTimeMillis() + MISSING_EXPIRY.toMillis();
+            synchronized (memory) {
+                memory.put(key, new MemoryEntry(metadata, expiresAt));
+            }
+            future.complete(metadata);
+            return metadata;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Reads what is on disk for a release, without asking upstream.
+     */
+    Stored stored(String user, String repository, String version) throws IOException {
+        Path entryDirectory = directory.resolve(user).resolve(repository).resolve(version);
+        Path entryFile = entryDirectory.resolve("entry.properties");
+        Path metadataFile = entryDirectory.resolve("metadata.json");
+
+        Properties entry = new Properties();
+        if (CacheFiles.exists(entryFile)) {
+            try {
+                entry.load(new StringReader(new String(CacheFiles.read(entryFile), StandardCharsets.UTF_8)));
+            } catch (IOException | IllegalArgumentException e) {
+                entry.clear();
+            }
+        }
+        String entryStatus = entry.getProperty("status");
+        long checked = Long.parseLong(entry.getProperty("checked", "0"));
+        if (STATUS_FOUND.equals(entryStatus) && CacheFiles.exists(metadataFile)) {
+            return new Stored(entry, CacheFiles.read(metadataFile), checked >= createdAt);
+        }
+        return new Stored(entry, null, STATUS_MISSING.equals(entryStatus) && System.currentTimeMillis() - checked < MISSING_EXPIRY.toMillis());
+    }
+
+    private Optional<byte[]> load(String user, String repository, String version, Stored stored) throws IOException {
+        if (stored.current()) {
+            upstream.metrics().cacheHit(LayerMetrics.CACHE_METADATA);
+            return stored.answer();
+        }
+        upstream.metrics().cacheMiss(LayerMetrics.CACHE_METADATA);
+
+        Path entryDirectory = directory.resolve(user).resolve(repository).resolve(version);
+        Path entryFile = entryDirectory.resolve("entry.properties");
+        Path metadataFile = entryDirectory.resolve("metadata.json");
+        boolean haveMetadata = stored.metadata() != null;
+
+        URI flixToml = upstream.releaseAsset(user, repository, version, "flix.toml");
+        var request = upstream.request(flixToml).GET();
+        String etag = stored.entry().getProperty("etag");
+        if (haveMetadata && etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        HttpResponse<byte[]> response;
+        try {
+            response = upstream.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            if (haveMetadata) {
+                // Upstream is unreachable; a stale answer beats none, particularly offline
+                FpkgRepositoryLayer.LOGGER.warn("Could not revalidate metadata of {}/{} {}, using cached copy", user, repository, version, e);
+                return stored.answer();
+            }
+            throw e;
+        }
+
+        Files.createDirectories(entryDirectory);
+        Properties updated = new Properties();
+        updated.setProperty("checked", Long.toString(System.currentTimeMillis()));
+        int status = response.statusCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && haveMetadata) {
+            updated.setProperty("status", STATUS_FOUND);
+            updated.setProperty("etag", etag);
+            writeEntry(entryFile, updated);
+            return stored.answer();
+        } else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            updated.setProperty("status", STATUS_MISSING);
+            writeEntry(entryFile, updated);
+            return Optional.empty();
+        } else if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response " + status + " for " + flixToml);
+        }
+
+        Toml toml = new Toml().read(new String(response.body(), StandardCharsets.UTF_8));
+        Map<String, Object> generated = ArtifactHandler.makeModuleMetadata(user, repository, version, toml);
+        prefetchDependencies(generated);
+        byte[] metadata = Json.toPrettyJson(generated).getBytes(StandardCharsets.UTF_8);
+        write(metadataFile, metadata);
+        updated.setProperty("status", STATUS_FOUND);
+        response.headers().firstValue("ETag").ifPresent(newEtag -> updated.setProperty("etag", newEtag));
+        writeEntry(entryFile, updated);
+        return Optional.of(metadata);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void prefetchDependencies(Map<String, Object> metadata) {
+        if (prefetcher == null) {
+            return;
+        }
+        for (var variant : (List<Map<String, Object>>) metadata.get("variants")) {
+            for (var dependency : (List<Map<String, Object>>) variant.get("dependencies")) {
+                if (!"github".equals(dependency.get("group"))) {
+                    continue;
+                }
+                String module = (String) dependency.get("module");
+                int slash = module.indexOf('/');
+                if (slash < 0) {
+                    continue;
+                }
+                String user = module.substring(0, slash);
+                String repository = module.substring(slash + 1);
+                String version = String.valueOf(((Map<String, Object>) dependency.get("version")).get("requires"));
+                if (isKnown(user + "/" + repository + "/" + version)) {
+                    continue;
+                }
+                prefetcher.execute(() -> {
+                    try {
+                        metadata(user, repository, version);
+                    } catch (IOException | RuntimeException e) {
+                        // Gradle will ask for it anyway, and get the error then
+                        FpkgRepositoryLayer.LOGGER.debug("Could not prefetch metadata of {}/{} {}", user, repository, version, e);
+                    }
+                });
+            }
+        }
+    }
+
+    private boolean isKnown(String key) {
+        if (inFlight.containsKey(key)) {
+            return true;
+        }
+        synchronized (memory) {
+            MemoryEntry entry = memory.get(key);
+            return entry != null && entry.expiresAt() > System.currentTimeMillis();
+        }
+    }
+
+    private static void writeEntry(Path file, Properties entry) throws IOException {
+        var writer = new StringWriter();
+        entry.store(writer, null);
+        write(file, writer.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(Path file, byte[] contents) throws IOException {
+        // Other builds may read the same entry concurrently, so never let them see a partial file
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, contents);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
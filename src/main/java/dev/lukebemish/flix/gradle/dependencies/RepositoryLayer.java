@@ -1,29 +1,83 @@
 package dev.lukebemish.flix.gradle.dependencies;
 
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
 import org.jetbrains.annotations.ApiStatus;
 
+import java.io.IOException;
+import java.net.BindException;
 import java.net.URI;
 
+/**
+ * Holds the repository layer of a build. Gradle asks for the URL of the repository whenever it builds resolvers, even
+ * for graphs without GitHub packages, so the URL only names a free port; the server is started on it once a GitHub
+ * package turns up in a graph being resolved, before Gradle requests it. Builds that resolve no GitHub packages never
+ * start it.
+ */
 @ApiStatus.Internal
-public abstract class RepositoryLayer implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+public abstract class RepositoryLayer implements BuildService<RepositoryLayer.Parameters>, AutoCloseable {
+    public interface Parameters extends BuildServiceParameters {
+        DirectoryProperty getCacheDirectory();
+    }
+
+    private int port = -1;
+    private FpkgRepositoryLayer.LayerServer layerServer;
+    private boolean closed;
 
-    private final FpkgRepositoryLayer.LayerServer layerServer;
-    public RepositoryLayer() {
+    /**
+     * Starts the server, unless it is running already.
+     */
+    public synchronized void start() {
+        checkOpen();
+        if (layerServer != null) {
+            return;
+        }
+        int port = port();
         try {
-        layerServer = FpkgRepositoryLayer.startServer();
-        } catch (Exception e) {
+            layerServer = FpkgRepositoryLayer.startServer(getParameters().getCacheDirectory().get().getAsFile().toPath(), port);
+        } catch (BindException e) {
+            throw new RuntimeException("Port " + port + " was taken before the flix repository layer could start on it; set " + FpkgRepositoryLayer.PROXY_PORT_PROP_NAME + " to pick another", e);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        FpkgRepositoryLayer.LOGGER.info("Started the flix repository layer on {}", layerServer.uri());
     }
 
     @Override
-    public void close() {
-        layerServer.close();
+    public synchronized void close() {
+        // Every project that applies the plugin closes the layer at the end of the build
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (layerServer != null) {
+            layerServer.close();
+        }
+    }
+
+    public synchronized URI url() {
+        checkOpen();
+        return URI.create("http://localhost:" + port());
+    }
+
+    private int port() {
+        if (port < 0) {
+            port = FpkgRepositoryLayer.freePort();
+        }
+        return port;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The repository layer has already been closed");
+        }
     }
 
-    public URI url() {
-        return layerServer.uri();
+    /**
+     * @return the metrics of the server, or null if it was never started
+     */
+    public synchronized LayerMetrics metrics() {
+        return layerServer == null ? null : layerServer.metrics();
     }
 }
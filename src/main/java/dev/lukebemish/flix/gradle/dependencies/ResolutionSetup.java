@@ -2,26 +2,58 @@
 
 import org.gradle.api.flow.FlowAction;
 import org.gradle.api.flow.FlowParameters;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.provider.Property;
 import org.gradle.api.services.ServiceReference;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Optional;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 @ApiStatus.Internal
 @SuppressWarnings("UnstableApiUsage")
 public abstract class ResolutionSetup implements FlowAction<ResolutionSetup.Parameters> {
+    private static final Logger LOGGER = Logging.getLogger(ResolutionSetup.class);
+
     public interface Parameters extends FlowParameters {
         @ServiceReference
         Property<RepositoryLayer> getRepositoryLayer();
 
         @Input
         Property<Boolean> getShouldClose();
+
+        /**
+         * The absolute path to write a JSON summary of what the repository layer did during the build to. A path
+         * rather than a file, since flow action inputs cannot be files.
+         */
+        @Input
+        @Optional
+        Property<String> getSummaryFile();
     }
 
     @Override
     public void execute(@NotNull Parameters parameters) {
         RepositoryLayer repositoryLayer = parameters.getRepositoryLayer().get();
+        LayerMetrics metrics = repositoryLayer.metrics();
+        if (metrics != null && metrics.totalRequests() > 0) {
+            var summary = metrics.summary();
+            LOGGER.info("Flix repository layer: {}", Json.toJson(summary));
+            if (parameters.getSummaryFile().isPresent()) {
+                Path summaryFile = Path.of(parameters.getSummaryFile().get());
+                try {
+                    Files.createDirectories(summaryFile.getParent());
+                    Files.writeString(summaryFile, Json.toPrettyJson(summary), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    LOGGER.warn("Could not write the repository layer summary to {}", summaryFile, e);
+                }
+            }
+        }
         if (parameters.getShouldClose().get()) {
             repositoryLayer.close();
         }
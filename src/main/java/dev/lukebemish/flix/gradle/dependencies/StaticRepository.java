@@ -0,0 +1,211 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes GitHub packages as a file-based ivy repository, laid out as the repository layer serves them, so that Gradle
+ * can resolve them from disk without the layer.
+ */
+@ApiStatus.Internal
+public final class StaticRepository {
+    private static final int PARALLELISM = 8;
+
+    /**
+     * The module metadata and fpkg of a GitHub package.
+     */
+    public record Module(String user, String repository, String version) {
+        /**
+         * @param module coordinates of the form {@code user/repository:version}
+         */
+        public static Module parse(String module) {
+            int slash = module.indexOf('/');
+            int colon = module.lastIndexOf(':');
+            if (slash < 0 || colon < slash) {
+                throw new IllegalArgumentException("Invalid module " + module);
+            }
+            return new Module(module.substring(0, slash), module.substring(slash + 1, colon), module.substring(colon + 1));
+        }
+    }
+
+    private StaticRepository() {}
+
+    /**
+     * Writes the given modules into the repository at {@code root}, fetching them in parallel. Metadata is taken from,
+     * and stored in, the shared metadata cache.
+     */
+    public static void write(Path root, Path cacheDirectory, Collection<Module> modules) throws IOException {
+        write(root, cacheDirectory, modules, false);
+    }
+
+    /**
+     * Writes the given modules and every GitHub package they depend on, directly or not, into the repository at
+     * {@code root}. Modules already in the repository are not fetched again.
+     */
+    public static void writeClosure(Path root, Path cacheDirectory, Collection<Module> modules) throws IOException {
+        write(root, cacheDirectory, modules, true);
+    }
+
+    private static void write(Path root, Path cacheDirectory, Collection<Module> modules, boolean transitive) throws IOException {
+        var upstream = new UpstreamClient();
+        var metadataCache = new MetadataCache(cacheDirectory.resolve("metadata"), upstream);
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+            Thread thread = new Thread(runnable, "flix-static-repository");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Set<Module> seen = new HashSet<>(modules);
+            List<Module> level = List.copyOf(seen);
+            // Each level of the graph is fetched in parallel; only its dependencies reveal the next one
+            while (!level.isEmpty()) {
+                List<Future<List<Module>>> futures = new ArrayList<>();
+                for (Module module : level) {
+                    // Everything on disk is read on this thread; only fetching and writing are left to the pool. Run
+                    // for the configuration cache, reads made on other threads would be recorded as its inputs.
+                    if (transitive && contains(root, module)) {
+                        futures.add(CompletableFuture.completedFuture(githubDependencies(readModule(root, module))));
+                    } else {
+                        var stored = metadataCache.stored(module.user(), module.repository(), module.version());
+                        boolean haveFpkg = Files.exists(moduleDirectory(root, module).resolve(module.repository() + ".fpkg"));
+                        futures.add(executor.submit(() -> writeModule(root, metadataCache, upstream, module, stored, haveFpkg)));
+                    }
+                }
+                List<Module> next = new ArrayList<>();
+                for (Future<List<Module>> future : futures) {
+                    for (Module dependency : await(future)) {
+                        if (transitive && seen.add(dependency)) {
+                            next.add(dependency);
+                        }
+                    }
+                }
+                level = next;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return whether the repository at {@code root} already holds the module file and fpkg of the given module
+     */
+    public static boolean contains(Path root, Module module) {
+        Path directory = moduleDirectory(root, module);
+        return Files.exists(directory.resolve(module.repository() + "-" + module.version() + ".module"))
+            && Files.exists(directory.resolve(module.repository() + ".fpkg"));
+    }
+
+    /**
+     * @return the directory holding the module file of the given module, which its fpkg is placed next to
+     */
+    static Path moduleDirectory(Path root, Module module) {
+        return root.resolve("github").resolve(module.user()).resolve(module.repository()).resolve(module.version()).resolve(module.user());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readModule(Path root, Module module) throws IOException {
+        Path moduleFile = moduleDirectory(root, module).resolve(module.repository() + "-" + module.version() + ".module");
+        return (Map<String, Object>) Json.parse(Files.readString(moduleFile, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param stored what is in the metadata cache for the module
+     * @param haveFpkg whether the repository already holds the fpkg of the module
+     * @return the GitHub packages the module depends on
+     */
+    @SuppressWarnings("unchecked")
+    static List<Module> writeModule(Path root, MetadataCache metadataCache, UpstreamClient upstream, Module module, MetadataCache.Stored stored, boolean haveFpkg) throws IOException {
+        Path directory = moduleDirectory(root, module);
+        Path moduleFile = directory.resolve(module.repository() + "-" + module.version() + ".module");
+        Optional<byte[]> metadata = metadataCache.metadata(module.user(), module.repository(), module.version(), stored);
+        if (metadata.isEmpty()) {
+            throw new IOException("No flix.toml found for " + module.user() + "/" + module.repository() + " " + module.version());
+        }
+        Files.createDirectories(directory);
+
+        String fpkgName = module.repository() + ".fpkg";
+        Path fpkg = directory.resolve(fpkgName);
+        if (!haveFpkg) {
+            Path temp = Files.createTempFile(directory, fpkgName, ".tmp");
+            try {
+                var request = upstream.request(upstream.releaseAsset(module.user(), module.repository(), module.version(), fpkgName)).GET().build();
+                HttpResponse<Path> response = upstream.send(request, HttpResponse.BodyHandlers.ofFile(temp));
+                if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unexpected response " + response.statusCode() + " for " + request.uri());
+                }
+                Files.move(temp, fpkg, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        // Gradle resolves file urls against the version directory, not the module file, so the url keeps the user
+        // directory the fpkg sits in, as the repository layer's does
+        var parsed = (Map<String, Object>) Json.parse(new String(metadata.get(), StandardCharsets.UTF_8));
+        for (var variant : (List<Map<String, Object>>) parsed.get("variants")) {
+            for (var file : (List<Map<String, Object>>) variant.get("files")) {
+                file.put("url", module.user() + "/" + fpkgName);
+                file.put("size", Files.size(fpkg));
+            }
+        }
+        Path temp = Files.createTempFile(directory, moduleFile.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, Json.toPrettyJson(parsed), StandardCharsets.UTF_8);
+            Files.move(temp, moduleFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return githubDependencies(parsed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Module> githubDependencies(Map<String, Object> metadata) {
+        List<Module> dependencies = new ArrayList<>();
+        for (var variant : (List<Map<String, Object>>) metadata.get("variants")) {
+            var variantDependencies = (List<Map<String, Object>>) variant.get("dependencies");
+            if (variantDependencies == null) {
+                continue;
+            }
+            for (var dependency : variantDependencies) {
+                if ("github".equals(dependency.get("group"))) {
+                    var version = (Map<String, Object>) dependency.get("version");
+                    dependencies.add(Module.parse(dependency.get("module") + ":" + version.get("requires")));
+                }
+            }
+        }
+        return dependencies;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the closure of the GitHub packages a project declares into the file repository, so that they are there
+ * before Gradle resolves anything. Obtained at configuration time, which makes it part of the configuration cache
+ * fingerprint: Gradle obtains it again on every build that reuses a cache entry, so the repository is written even
+ * when the project is not configured.
+ */
+@ApiStatus.Internal
+public abstract class StaticRepositoryClosure implements ValueSource<Set<String>, StaticRepositoryClosure.Parameters> {
+    public interface Parameters extends ValueSourceParameters {
+        /**
+         * Packages to write, as {@code user/repository:version}.
+         */
+        SetProperty<String> getModules();
+
+        DirectoryProperty getRepositoryDirectory();
+
+        DirectoryProperty getCacheDirectory();
+
+        /**
+         * Packages already in this repository are left out.
+         */
+        DirectoryProperty getVendorDirectory();
+    }
+
+    /**
+     * @return the packages written, along with everything they depend on
+     */
+    @Override
+    public Set<String> obtain() {
+        Path vendor = getParameters().getVendorDirectory().isPresent()
+            ? getParameters().getVendorDirectory().get().getAsFile().toPath()
+            : null;
+        var modules = new TreeSet<>(getParameters().getModules().get()).stream()
+            .map(StaticRepository.Module::parse)
+            .filter(module -> vendor == null || !StaticRepository.contains(vendor, module))
+            .toList();
+        if (!modules.isEmpty()) {
+            try {
+                StaticRepository.writeClosure(
+                    getParameters().getRepositoryDirectory().get().getAsFile().toPath(),
+                    getParameters().getCacheDirectory().get().getAsFile().toPath(),
+                    modules
+                );
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Set<String> written = new TreeSet<>();
+        for (var module : modules) {
+            written.add(module.user() + "/" + module.repository() + ":" + module.version());
+        }
+        return written;
+    }
+}
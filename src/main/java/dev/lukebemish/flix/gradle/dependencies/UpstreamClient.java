@@ -0,0 +1,149 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access to GitHub releases, or to whatever stands in for them. One client, and so one connection pool, is shared by
+ * everything the repository layer fetches. Failed requests are retried a few times with backoff, and every request
+ * has a timeout, so that a stalled connection cannot hang the build.
+ */
+final class UpstreamClient {
+    static final String UPSTREAM_URL_ENV_NAME = "FLIX_GRADLE_UPSTREAM_URL";
+    static final String UPSTREAM_URL_PROP_NAME = "dev.lukebemish.flix.upstream.url";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final LayerMetrics metrics;
+
+    UpstreamClient() {
+        this(new LayerMetrics());
+    }
+
+    UpstreamClient(LayerMetrics metrics) {
+        this.metrics = metrics;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+        String base = Optional.ofNullable(System.getenv(UPSTREAM_URL_ENV_NAME))
+            .or(() -> Optional.ofNullable(System.getProperty(UPSTREAM_URL_PROP_NAME)))
+            .orElse("https://github.com/");
+        this.baseUri = URI.create(base.endsWith("/") ? base : base + "/");
+    }
+
+    /**
+     * @return the metrics of the layer this client fetches for
+     */
+    LayerMetrics metrics() {
+        return metrics;
+    }
+
+    URI releaseAsset(String user, String repository, String version, String asset) {
+        return baseUri.resolve(user + "/" + repository + "/releases/download/v" + version + "/" + asset);
+    }
+
+    HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT);
+    }
+
+    <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return sendAsync(request, handler).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Request to " + request.uri() + " failed", e.getCause());
+        }
+    }
+
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        long start = System.nanoTime();
+        // Content-Length is missing from chunked and most HTTP/2 responses, so bytes are counted as the body is read
+        HttpResponse.BodyHandler<T> counting = info -> new CountingSubscriber<>(handler.apply(info), metrics);
+        return attempt(request, counting, 1).whenComplete((response, failure) -> metrics.upstream(
+            (System.nanoTime() - start) / 1_000_000,
+            failure != null || isRetryable(response.statusCode())
+        ));
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> attempt(HttpRequest request, HttpResponse.BodyHandler<T> handler, int attempt) {
+        return client.sendAsync(request, handler).handle((response, failure) -> {
+            boolean retryable = failure != null ? isRetryable(failure) : isRetryable(response.statusCode());
+            if (!retryable || attempt >= MAX_ATTEMPTS) {
+                return failure == null
+                    ? CompletableFuture.completedFuture(response)
+                    : CompletableFuture.<HttpResponse<T>>failedFuture(failure);
+            }
+            long backoff = INITIAL_BACKOFF_MILLIS << (attempt - 1);
+            long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            FpkgRepositoryLayer.LOGGER.info("Retrying {} in {} ms (attempt {} of {})", request.uri(), delay, attempt + 1, MAX_ATTEMPTS);
+            metrics.retry();
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> null, delayed)
+                .thenCompose(ignored -> attempt(request, handler, attempt + 1));
+        }).thenCompose(future -> future);
+    }
+
+    private static boolean isRetryable(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        return cause instanceof IOException;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private record CountingSubscriber<T>(HttpResponse.BodySubscriber<T> delegate, LayerMetrics metrics) implements HttpResponse.BodySubscriber<T> {
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            long bytes = 0;
+            for (ByteBuffer buffer : buffers) {
+                bytes += buffer.remaining();
+            }
+            metrics.fetched(bytes);
+            delegate.onNext(buffers);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+}
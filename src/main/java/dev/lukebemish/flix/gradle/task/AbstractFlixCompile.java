@@ -1,104 +1,105 @@
 package dev.lukebemish.flix.gradle.task;
 
-import dev.lukebemish.flix.gradle.wrapper.WrapperFinder;
+import dev.lukebemish.flix.gradle.wrapper.Wrapper;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.Project;
 import org.gradle.api.file.ConfigurableFileCollection;
-import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.jvm.toolchain.JavaLanguageVersion;
 import org.gradle.jvm.toolchain.JavaLauncher;
 import org.gradle.jvm.toolchain.JavaToolchainService;
-import org.gradle.process.internal.ExecActionFactory;
+import org.gradle.process.ExecOperations;
 import org.gradle.work.DisableCachingByDefault;
+import org.gradle.work.Incremental;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutionException;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.jar.Manifest;
+import java.util.function.Function;
+import java.util.jar.JarFile;
 
 @DisableCachingByDefault(
     because = "Super-class, not to be instantiated directly"
 )
 public abstract class AbstractFlixCompile extends DefaultTask {
+    // The compiler builds its standard library from source on every run, which dominates the heap of small projects
+    private static final long AUTO_HEAP_BASE_MEGABYTES = 1024;
+    private static final long AUTO_HEAP_BYTES_PER_INPUT_BYTE = 64;
+    private static final long AUTO_HEAP_GRANULARITY_MEGABYTES = 256;
+
     @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
     public abstract ConfigurableFileCollection getFlixInput();
     @SkipWhenEmpty
+    @Incremental
+    @IgnoreEmptyDirectories
     @InputFiles
-    public abstract Property<FileCollection> getSource();
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSource();
     @Nested
     public abstract FlixOptions getOptions();
     @Nested
     public abstract Property<JavaLauncher> getJavaLauncher();
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+    /**
+     * Whether forked compilers share an AppCDS archive of their classpath, created by the first fork. Defaults to
+     * true. Only has an effect when the compiler runs on JDK 19 or newer, which can create the archive itself; on
+     * older JDKs forks start without one.
+     */
+    @Internal
+    public abstract Property<Boolean> getClassDataSharing();
 
     @Inject
     protected JavaToolchainService getJavaToolchainService() {
         throw new UnsupportedOperationException();
     }
 
-    private final ExecActionFactory execActionFactory;
     @Inject
-    public AbstractFlixCompile(Project project, ExecActionFactory execActionFactory) {
-        this.execActionFactory = execActionFactory;
+    protected ExecOperations getExecOperations() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Inject
+    protected WorkerExecutor getWorkerExecutor() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Inject
+    public AbstractFlixCompile(Project project) {
         JavaPluginExtension javaPluginExtension = project.getExtensions().getByType(JavaPluginExtension.class);
         this.getOptions().getJvmTarget().convention(javaPluginExtension.getToolchain().getLanguageVersion().map(JavaLanguageVersion::asInt));
         this.getJavaLauncher().convention(getJavaToolchainService().launcherFor(javaPluginExtension.getToolchain()));
+        File cacheDirectory = new File(project.getGradle().getGradleUserHomeDir(), "caches/flix-gradle");
+        this.getCacheDirectory().convention(project.getLayout().dir(project.provider(() -> cacheDirectory)));
+        this.getClassDataSharing().convention(true);
     }
 
     protected Path runExec(Properties properties, String... args) {
         Path tempDir = getTemporaryDir().toPath();
 
-        Path tempClasses = tempDir.resolve("classes");
-
-        URL classUrl = WrapperFinder.class.getResource(WrapperFinder.class.getSimpleName() + ".class");
-        if (classUrl == null) {
-            throw new RuntimeException("Could not find class " + WrapperFinder.class.getSimpleName());
-        }
-        var wrapperClassPath = classUrl.toExternalForm();
-        String manifestPath = wrapperClassPath.substring(0, wrapperClassPath.lastIndexOf("!") + 1) +
-            "/META-INF/MANIFEST.MF";
-
-        try (var is = new URL(manifestPath).openStream()) {
-            Manifest mf = new Manifest(is);
-            String[] classes = mf.getMainAttributes().getValue("Flix-Gradle-Wrapper-Classes").split(",");
-            for (var className : classes) {
-                try (var classStream = WrapperFinder.class.getResourceAsStream("/" + className)) {
-                    if (classStream == null) {
-                        throw new RuntimeException("Could not find class " + className);
-                    }
-                    var out = tempClasses.resolve(className);
-                    Files.createDirectories(out.getParent());
-                    if (Files.exists(out)) {
-                        Files.delete(out);
-                    }
-                    Files.copy(classStream, out);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        List<File> classpath = new ArrayList<>();
-        getFlixInput().forEach(it -> {
-            if (it.isDirectory()) {
-                classpath.add(it);
-            } else if (it.getName().endsWith(".jar")) {
-                classpath.add(it);
-            }
-        });
-
-        classpath.add(tempClasses.toFile());
+        List<File> classpath = compilerClasspath(true);
         Path propertiesFile = tempDir.resolve("options.properties");
         try (var writer = Files.newBufferedWriter(propertiesFile)) {
             properties.store(writer, "Flix Gradle Wrapper Options");
@@ -116,20 +117,182 @@ protected Path runExec(Properties properties, String... args) {
             throw new RuntimeException(e);
         }
 
-        var exec = execActionFactory.newJavaExecAction();
-        exec.classpath(classpath.toArray());
-        exec.getMainClass().set("dev.lukebemish.flix.gradle.wrapper.Bootstrap");
-        exec.args(propertiesFile.toAbsolutePath().toString());
-        exec.args((Object[]) args);
+        // Whether this fork starts from an existing archive, so that cold and warm fork times can be told apart
+        String sharing = classDataSharingState(classpath);
+        long start = System.nanoTime();
+        getExecOperations().javaexec(exec -> {
+            exec.classpath(classpath.toArray());
+            exec.getMainClass().set("dev.lukebemish.flix.gradle.wrapper.Bootstrap");
+            exec.args(propertiesFile.toAbsolutePath().toString());
+            exec.args((Object[]) args);
 
-        exec.setWorkingDir(runDir.toFile());
+            exec.setWorkingDir(runDir.toFile());
 
-        exec.setExecutable(this.getJavaLauncher().get().getExecutablePath().toString());
-        exec.execute();
+            exec.jvmArgs(compilerJvmArgs(classpath));
+            exec.jvmArgs(forkJvmArgs(maxHeapSize()));
+
+            exec.setExecutable(this.getJavaLauncher().get().getExecutablePath().toString());
+        });
+        getLogger().info("Forked Flix compiler finished in {} ms (class data sharing: {})", (System.nanoTime() - start) / 1_000_000, sharing);
 
         return runDir;
     }
 
+    /**
+     * Submits the wrapper to a process-isolated worker. The worker runs asynchronously, bounded by
+     * {@code --max-workers}, so compiles in the same or other projects can overlap.
+     */
+    protected WorkQueue submitWorker(Properties properties, List<String> jvmArgs, String... args) {
+        WorkQueue queue = workerQueue(jvmArgs);
+        queue.submit(FlixCompileAction.class, parameters -> {
+            parameters.getProperties().set(asMap(properties));
+            parameters.getArgs().set(List.of(args));
+        });
+        return queue;
+    }
+
+    protected WorkQueue workerQueue(List<String> jvmArgs) {
+        List<File> classpath = compilerClasspath(true);
+        return getWorkerExecutor().processIsolation(spec -> {
+            spec.getClasspath().from(classpath);
+            spec.forkOptions(fork -> {
+                fork.setExecutable(this.getJavaLauncher().get().getExecutablePath().toString());
+                fork.jvmArgs(jvmArgs);
+            });
+        });
+    }
+
+    /**
+     * Submits a compile with the JVM arguments from the fork options and waits for it. With an automatically sized
+     * heap, a compile that runs out of memory is retried once with twice the heap.
+     */
+    protected void awaitCompiler(Function<List<String>, WorkQueue> submit) {
+        String maxHeapSize = maxHeapSize();
+        try {
+            submit.apply(forkJvmArgs(maxHeapSize)).await();
+        } catch (WorkerExecutionException e) {
+            if (getOptions().getFork().getMaxHeapSize().isPresent() || !getOptions().getFork().getAutoHeap().get() || !isOutOfMemory(e)) {
+                throw e;
+            }
+            long megabytes = Math.min(autoHeapMegabytes() * 2, heapLimitMegabytes());
+            getLogger().warn("Flix compiler ran out of memory with a {} heap; retrying with {}m", maxHeapSize, megabytes);
+            submit.apply(forkJvmArgs(megabytes + "m")).await();
+        }
+    }
+
+    protected List<String> forkJvmArgs(String maxHeapSize) {
+        return getOptions().getFork().create(maxHeapSize, getTemporaryDir());
+    }
+
+    protected String maxHeapSize() {
+        ForkOptions fork = getOptions().getFork();
+        if (fork.getMaxHeapSize().isPresent()) {
+            return fork.getMaxHeapSize().get();
+        } else if (fork.getAutoHeap().get()) {
+            return autoHeapMegabytes() + "m";
+        }
+        return null;
+    }
+
+    private long autoHeapMegabytes() {
+        long inputBytes = 0;
+        for (File file : getSource().getAsFileTree()) {
+            inputBytes += file.length();
+        }
+        for (File file : getFlixInput()) {
+            if (file.getName().endsWith(".fpkg")) {
+                inputBytes += file.length();
+            }
+        }
+        long megabytes = AUTO_HEAP_BASE_MEGABYTES + inputBytes * AUTO_HEAP_BYTES_PER_INPUT_BYTE / (1024 * 1024);
+        megabytes = (megabytes + AUTO_HEAP_GRANULARITY_MEGABYTES - 1) / AUTO_HEAP_GRANULARITY_MEGABYTES * AUTO_HEAP_GRANULARITY_MEGABYTES;
+        return Math.min(megabytes, heapLimitMegabytes());
+    }
+
+    private static long heapLimitMegabytes() {
+        // Leave a quarter of the machine to Gradle and everything else
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return Math.max(AUTO_HEAP_BASE_MEGABYTES, os.getTotalMemorySize() / (1024 * 1024) * 3 / 4);
+        }
+        return 8192;
+    }
+
+    private static boolean isOutOfMemory(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            // Failures from worker processes may come back as placeholders that only keep the original class name
+            if (cause instanceof OutOfMemoryError
+                || cause.toString().contains(OutOfMemoryError.class.getName())
+                || Wrapper.OUT_OF_MEMORY.equals(cause.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static Map<String, String> asMap(Properties properties) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    }
+
+    /**
+     * The classpath of a forked compiler: the Flix compiler first, then the wrapper, then anything else on the flix
+     * classpath.
+     */
+    protected List<File> compilerClasspath(boolean includeDependencies) {
+        List<File> compilerJars = new ArrayList<>();
+        List<File> dependencies = new ArrayList<>();
+        getFlixInput().forEach(it -> {
+            if (it.isDirectory()) {
+                dependencies.add(it);
+            } else if (it.getName().endsWith(".jar")) {
+                if (isCompilerJar(it)) {
+                    compilerJars.add(it);
+                } else {
+                    dependencies.add(it);
+                }
+            }
+        });
+        if (compilerJars.isEmpty()) {
+            throw new RuntimeException("Could not find the Flix compiler on the flix classpath");
+        }
+
+        List<File> classpath = new ArrayList<>(compilerJars);
+        classpath.add(WrapperJar.locate(getCacheDirectory().get().getAsFile().toPath()).toFile());
+        if (includeDependencies) {
+            classpath.addAll(dependencies);
+        }
+        return classpath;
+    }
+
+    protected List<String> compilerJvmArgs(List<File> classpath) {
+        if (!getClassDataSharing().get()) {
+            return List.of();
+        }
+        return ClassDataSharing.jvmArgs(getCacheDirectory().get().getAsFile().toPath(), getJavaLauncher().get().getMetadata(), classpath);
+    }
+
+    private String classDataSharingState(List<File> classpath) {
+        if (!getClassDataSharing().get()) {
+            return "disabled";
+        }
+        Path archive = ClassDataSharing.archive(getCacheDirectory().get().getAsFile().toPath(), getJavaLauncher().get().getMetadata(), classpath);
+        if (archive == null) {
+            return "unavailable before JDK " + ClassDataSharing.MINIMUM_VERSION;
+        }
+        return Files.exists(archive) ? "warm" : "cold, creating the archive";
+    }
+
+    private static boolean isCompilerJar(File file) {
+        try (var jar = new JarFile(file)) {
+            return jar.getEntry("ca/uwaterloo/flix/api/Flix.class") != null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     protected void addFlixInput(Properties properties) {
         List<String> sourceJars = new ArrayList<>();
         List<String> sourceFlix = new ArrayList<>();
@@ -152,7 +315,7 @@ protected void addFlixInput(Properties properties) {
                 throw new RuntimeException("Unknown file type "+it.getName());
             }
         });
-        getSource().get().getAsFileTree().forEach(it -> {
+        getSource().getAsFileTree().forEach(it -> {
             try {
                 sourceFlix.add(it.getAbsolutePath());
             } catch (Throwable throwable) {
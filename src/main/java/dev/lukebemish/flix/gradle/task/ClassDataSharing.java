@@ -0,0 +1,64 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * JVM arguments pointing a forked compiler at an AppCDS archive of its classpath. The archive is created by the first
+ * fork for a given JDK and classpath and reused by every fork after it, so the Flix compiler classes are mapped in
+ * pre-parsed instead of being loaded and verified again on each start.
+ */
+final class ClassDataSharing {
+    // -XX:+AutoCreateSharedArchive, which (re)creates a stale or missing archive on exit, was added in JDK 19
+    static final int MINIMUM_VERSION = 19;
+
+    private ClassDataSharing() {}
+
+    static List<String> jvmArgs(Path cacheDirectory, JavaInstallationMetadata metadata, List<File> classpath) {
+        Path archive = archive(cacheDirectory, metadata, classpath);
+        if (archive == null) {
+            return List.of();
+        }
+        return List.of(
+            "-XX:+AutoCreateSharedArchive",
+            "-XX:SharedArchiveFile=" + archive.toAbsolutePath()
+        );
+    }
+
+    /**
+     * @return the archive a fork with this JDK and classpath uses, or null if the JDK is too old to create one
+     */
+    static Path archive(Path cacheDirectory, JavaInstallationMetadata metadata, List<File> classpath) {
+        if (metadata.getLanguageVersion().asInt() < MINIMUM_VERSION) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, metadata.getInstallationPath().getAsFile().getAbsolutePath());
+            update(digest, metadata.getJavaRuntimeVersion());
+            update(digest, metadata.getJvmVersion());
+            for (File file : classpath) {
+                update(digest, file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified());
+            }
+            Path archives = cacheDirectory.resolve("cds");
+            Files.createDirectories(archives);
+            return archives.resolve(HexFormat.of().formatHex(digest.digest()).substring(0, 32) + ".jsa");
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
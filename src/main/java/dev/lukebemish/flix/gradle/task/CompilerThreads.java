@@ -0,0 +1,62 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Splits Gradle's worker budget evenly between the Flix compiles running at once. A compile keeps the threads it
+ * started with, so when compiles overlap the total can briefly go over {@code --max-workers} until the earlier ones
+ * finish; the alternative, handing later compiles only what is left, leaves them with a single thread.
+ */
+@ApiStatus.Internal
+public abstract class CompilerThreads implements BuildService<CompilerThreads.Parameters> {
+    public interface Parameters extends BuildServiceParameters {
+        Property<Integer> getMaxWorkers();
+    }
+
+    static Provider<CompilerThreads> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent("flixCompilerThreads", CompilerThreads.class, spec ->
+            spec.getParameters().getMaxWorkers().set(project.getGradle().getStartParameter().getMaxWorkerCount())
+        );
+    }
+
+    private int running;
+
+    synchronized Lease lease() {
+        int maxWorkers = getParameters().getMaxWorkers().get();
+        running++;
+        return new Lease(Math.max(1, maxWorkers / running));
+    }
+
+    private synchronized void release() {
+        running--;
+    }
+
+    final class Lease implements AutoCloseable {
+        private final int threads;
+        private boolean closed;
+
+        private Lease(int threads) {
+            this.threads = threads;
+        }
+
+        int threads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release();
+        }
+    }
+}
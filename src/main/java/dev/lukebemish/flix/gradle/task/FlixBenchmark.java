@@ -0,0 +1,135 @@
+package dev.lukebemish.flix.gradle.task;
+
+import groovy.json.JsonOutput;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs the Flix benchmark functions of a source set in a number of fresh JVMs, one after another, and writes the
+ * merged samples as JSON. Benchmarks are keyed and ordered by name, so results from different commits line up.
+ */
+@DisableCachingByDefault(
+    because = "Benchmark results describe the machine they ran on"
+)
+public abstract class FlixBenchmark extends AbstractFlixCompile {
+    @Input
+    public abstract Property<Integer> getForks();
+    @Input
+    public abstract Property<Integer> getWarmupIterations();
+    @Input
+    public abstract Property<Integer> getIterations();
+    /**
+     * How long each iteration calls a benchmark function for, in milliseconds.
+     */
+    @Input
+    public abstract Property<Integer> getIterationMillis();
+    @OutputFile
+    public abstract RegularFileProperty getResultsFile();
+
+    @Inject
+    public FlixBenchmark(Project project) {
+        super(project);
+        this.getForks().convention(2);
+        this.getWarmupIterations().convention(5);
+        this.getIterations().convention(5);
+        this.getIterationMillis().convention(1000);
+    }
+
+    @TaskAction
+    public void exec() {
+        File forksDir = new File(getTemporaryDir(), "forks");
+        try {
+            FileUtils.deleteDirectory(forksDir);
+            Files.createDirectories(forksDir.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Properties properties = getOptions().create();
+        properties.remove("output");
+        addFlixInput(properties);
+        properties.put("command", "benchmark");
+        properties.put("benchmarkWarmupIterations", getWarmupIterations().get().toString());
+        properties.put("benchmarkIterations", getIterations().get().toString());
+        properties.put("benchmarkIterationMillis", getIterationMillis().get().toString());
+
+        // Forks run one at a time, so that they do not compete for the machine
+        Map<String, List<Double>> samples = new TreeMap<>();
+        for (int fork = 0; fork < getForks().get(); fork++) {
+            File forkResults = new File(forksDir, fork + ".properties");
+            properties.put("benchmarkResults", forkResults.getAbsolutePath());
+            runExec(properties);
+
+            Properties results = new Properties();
+            try (var reader = Files.newBufferedReader(forkResults.toPath(), StandardCharsets.UTF_8)) {
+                results.load(reader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            for (String name : results.stringPropertyNames()) {
+                var list = samples.computeIfAbsent(name, k -> new ArrayList<>());
+                for (String sample : results.getProperty(name).split(",")) {
+                    list.add(Double.parseDouble(sample));
+                }
+            }
+        }
+
+        try {
+            File resultsFile = getResultsFile().get().getAsFile();
+            Files.createDirectories(resultsFile.toPath().toAbsolutePath().getParent());
+            Files.writeString(resultsFile.toPath(), json(samples), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String json(Map<String, List<Double>> samples) {
+        List<Map<String, Object>> benchmarks = new ArrayList<>();
+        for (var entry : samples.entrySet()) {
+            List<Double> values = entry.getValue();
+            double mean = values.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+            double variance = values.stream().mapToDouble(v -> (v - mean) * (v - mean)).sum() / Math.max(1, values.size() - 1);
+            Map<String, Object> benchmark = new LinkedHashMap<>();
+            benchmark.put("name", entry.getKey());
+            benchmark.put("mean", round(mean));
+            benchmark.put("min", round(values.stream().mapToDouble(Double::doubleValue).min().orElse(0)));
+            benchmark.put("max", round(values.stream().mapToDouble(Double::doubleValue).max().orElse(0)));
+            benchmark.put("stddev", round(Math.sqrt(variance)));
+            benchmark.put("samples", values.stream().map(FlixBenchmark::round).toList());
+            benchmarks.add(benchmark);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("unit", "ns/op");
+        json.put("forks", getForks().get());
+        json.put("warmupIterations", getWarmupIterations().get());
+        json.put("iterations", getIterations().get());
+        json.put("iterationMillis", getIterationMillis().get());
+        json.put("benchmarks", benchmarks);
+        return JsonOutput.prettyPrint(JsonOutput.toJson(json)) + "\n";
+    }
+
+    private static BigDecimal round(double value) {
+        return BigDecimal.valueOf(value).setScale(3, RoundingMode.HALF_UP);
+    }
+}
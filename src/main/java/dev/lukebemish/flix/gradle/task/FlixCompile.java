@@ -1,43 +1,162 @@
 package dev.lukebemish.flix.gradle.task;
 
+import dev.lukebemish.flix.gradle.FlixGradleExtension;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Console;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.process.internal.ExecActionFactory;
+import org.gradle.work.ChangeType;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
+@CacheableTask
 public abstract class FlixCompile extends AbstractFlixCompile {
     @OutputDirectory
     public abstract DirectoryProperty getDestinationDirectory();
 
+    @Internal
+    public abstract Property<Boolean> getUseDaemon();
+    @Internal
+    public abstract Property<Duration> getDaemonIdleTimeout();
+    @Internal
+    public abstract DirectoryProperty getDaemonDirectory();
+    @Internal
+    public abstract Property<CompilerThreads> getCompilerThreads();
+    /**
+     * Where to write phase timings and memory figures of the compile as JSON. These describe a single run rather than
+     * its result, so they are not a task output and are not restored from the build cache.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+    /**
+     * Where to write the index of the compiled test functions, which {@link FlixTest} runs from.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getTestIndex();
+    /**
+     * Whether to print a summary of the compile report to the console.
+     */
+    @Console
+    public abstract Property<Boolean> getReportSummary();
+
     @Inject
-    public FlixCompile(Project project, ExecActionFactory execActionFactory) {
-        super(project, execActionFactory);
+    public FlixCompile(Project project) {
+        super(project);
         this.getOptions().getOutput().convention(getDestinationDirectory());
+
+        FlixGradleExtension flixExtension = project.getExtensions().getByType(FlixGradleExtension.class);
+        this.getUseDaemon().convention(flixExtension.getUseDaemon());
+        this.getDaemonIdleTimeout().convention(flixExtension.getDaemonIdleTimeout());
+        this.getDaemonDirectory().convention(getCacheDirectory().dir("daemons"));
+        this.getReportSummary().convention(false);
+
+        Provider<CompilerThreads> compilerThreads = CompilerThreads.register(project);
+        this.getCompilerThreads().convention(compilerThreads);
+        this.usesService(compilerThreads);
     }
 
     @TaskAction
-    public void exec() {
+    public void exec(InputChanges inputChanges) {
         File outputDir = getDestinationDirectory().get().getAsFile();
-        if (outputDir.exists() && outputDir.isDirectory()) {
-            try {
-                FileUtils.deleteDirectory(outputDir);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        // Flix rewrites every class it emits, so compile into a staging area and only copy over what changed
+        File stagingDir = new File(getTemporaryDir(), "staging");
+        try {
+            if (stagingDir.exists()) {
+                FileUtils.deleteDirectory(stagingDir);
             }
-            outputDir.mkdir();
+            Files.createDirectories(stagingDir.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
 
         Properties properties = getOptions().create();
+        boolean hasOutput = properties.containsKey("output");
+        if (hasOutput) {
+            properties.setProperty("output", stagingDir.getAbsolutePath());
+        }
         addFlixInput(properties);
         properties.put("command", "compile");
+        if (getReportFile().isPresent()) {
+            properties.put("report", getReportFile().get().getAsFile().getAbsolutePath());
+        }
+        properties.put("reportSummary", getReportSummary().get().toString());
+        if (getTestIndex().isPresent()) {
+            properties.put("testIndex", getTestIndex().get().getAsFile().getAbsolutePath());
+        }
+
+        try (var lease = properties.containsKey("threads") ? null : getCompilerThreads().get().lease()) {
+            if (lease != null) {
+                properties.put("threads", Integer.toString(lease.threads()));
+            }
+            // Awaiting the work releases this task's locks, so other tasks still run alongside the compile
+            if (getUseDaemon().get()) {
+                // Only a daemon can retain a compiler instance between runs, so only then are source changes useful
+                properties.put("session", outputDir.getAbsolutePath());
+                if (inputChanges.isIncremental()) {
+                    addSourceChanges(properties, inputChanges);
+                }
+                awaitCompiler(jvmArgs -> runDaemon(properties, jvmArgs));
+            } else {
+                awaitCompiler(jvmArgs -> submitWorker(properties, jvmArgs));
+            }
+        }
+
+        if (hasOutput) {
+            try {
+                var result = OutputSync.sync(stagingDir.toPath(), getOptions().getOutput().get().getAsFile().toPath());
+                getLogger().info("Flix output: {} written, {} unchanged, {} deleted", result.written(), result.unchanged(), result.deleted());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void addSourceChanges(Properties properties, InputChanges inputChanges) {
+        List<String> changedFlix = new ArrayList<>();
+        // Removals are not sent: the session works them out from the full source list, which it is sent anyway
+        inputChanges.getFileChanges(getSource()).forEach(change -> {
+            if (change.getFileType() == FileType.FILE && change.getChangeType() != ChangeType.REMOVED) {
+                changedFlix.add(change.getFile().getAbsolutePath());
+            }
+        });
+        properties.put("incremental", "true");
+        properties.put("changedFlix", String.join(",", changedFlix));
+    }
 
-        runExec(properties);
+    private WorkQueue runDaemon(Properties properties, List<String> jvmArgs) {
+        // Dependency jars are handed to the compiler per request, so daemons are shared between projects
+        List<File> classpath = compilerClasspath(false);
+        WorkQueue queue = getWorkerExecutor().noIsolation();
+        queue.submit(FlixDaemonAction.class, parameters -> {
+            parameters.getProperties().set(asMap(properties));
+            parameters.getDaemonDirectory().set(getDaemonDirectory());
+            parameters.getJavaExecutable().set(getJavaLauncher().get().getExecutablePath().toString());
+            parameters.getClasspath().from(classpath);
+            parameters.getJvmArgs().set(compilerJvmArgs(classpath));
+            parameters.getJvmArgs().addAll(jvmArgs);
+            parameters.getConfiguredJvmArgs().set(getOptions().getFork().configured());
+            parameters.getIdleTimeout().set(getDaemonIdleTimeout());
+        });
+        return queue;
     }
 }
@@ -0,0 +1,35 @@
+package dev.lukebemish.flix.gradle.task;
+
+import dev.lukebemish.flix.gradle.wrapper.Wrapper;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Properties;
+
+/**
+ * Runs the wrapper inside a process-isolated worker, whose classpath carries the Flix compiler. Gradle keeps such
+ * workers alive and reuses them for later compiles with the same classpath and fork options.
+ */
+@ApiStatus.Internal
+public abstract class FlixCompileAction implements WorkAction<FlixCompileAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        MapProperty<String, String> getProperties();
+
+        ListProperty<String> getArgs();
+    }
+
+    @Override
+    public void execute() {
+        Properties properties = new Properties();
+        properties.putAll(getParameters().getProperties().get());
+        try {
+            Wrapper.execute(properties, getParameters().getArgs().get().toArray(String[]::new));
+        } catch (OutOfMemoryError e) {
+            // Report this plainly, so that the task can recognise it whatever Gradle does with the original error
+            throw new RuntimeException(Wrapper.OUT_OF_MEMORY, e);
+        }
+    }
+}
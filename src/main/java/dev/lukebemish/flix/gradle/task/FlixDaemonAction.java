@@ -0,0 +1,55 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Hands a compile to a compiler daemon. Runs without isolation, as the heavy lifting happens in the daemon; going
+ * through the worker API still lets Gradle overlap it with other work and bound it by the worker budget.
+ */
+@ApiStatus.Internal
+public abstract class FlixDaemonAction implements WorkAction<FlixDaemonAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        MapProperty<String, String> getProperties();
+
+        DirectoryProperty getDaemonDirectory();
+
+        Property<String> getJavaExecutable();
+
+        ConfigurableFileCollection getClasspath();
+
+        ListProperty<String> getJvmArgs();
+
+        /**
+         * The JVM arguments configured by the user, which together with the executable and classpath pick the daemon.
+         */
+        ListProperty<String> getConfiguredJvmArgs();
+
+        Property<Duration> getIdleTimeout();
+    }
+
+    @Override
+    public void execute() {
+        Properties properties = new Properties();
+        properties.putAll(getParameters().getProperties().get());
+        var client = new FlixDaemonClient(
+            getParameters().getDaemonDirectory().get().getAsFile().toPath(),
+            getParameters().getJavaExecutable().get(),
+            List.copyOf(getParameters().getClasspath().getFiles()),
+            getParameters().getJvmArgs().get(),
+            getParameters().getConfiguredJvmArgs().get(),
+            getParameters().getIdleTimeout().get()
+        );
+        client.execute(properties);
+    }
+}
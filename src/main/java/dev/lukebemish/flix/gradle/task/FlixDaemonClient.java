@@ -0,0 +1,229 @@
+package dev.lukebemish.flix.gradle.task;
+
+import dev.lukebemish.flix.gradle.wrapper.DaemonProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Talks to a long-lived compiler process, spawning one if no live daemon exists for the given compiler classpath, JVM
+ * and configured JVM arguments. Daemons are shared between builds through their state directory and shut themselves
+ * down once idle.
+ */
+final class FlixDaemonClient {
+    private static final Map<Path, Object> SPAWN_LOCKS = new ConcurrentHashMap<>();
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final Path daemonDirectory;
+    private final String javaExecutable;
+    private final List<File> classpath;
+    private final List<String> jvmArgs;
+    private final List<String> configuredJvmArgs;
+    private final Duration idleTimeout;
+
+    /**
+     * @param jvmArgs the arguments a new daemon is started with
+     * @param configuredJvmArgs the subset of those configured by the user; arguments derived per task, such as an
+     *                          automatically sized heap or a GC log in the task's directory, are left out so that
+     *                          tasks can share a daemon
+     */
+    FlixDaemonClient(Path daemonsDirectory, String javaExecutable, List<File> classpath, List<String> jvmArgs, List<String> configuredJvmArgs, Duration idleTimeout) {
+        this.javaExecutable = javaExecutable;
+        this.classpath = classpath;
+        this.jvmArgs = jvmArgs;
+        this.configuredJvmArgs = configuredJvmArgs;
+        this.idleTimeout = idleTimeout;
+        this.daemonDirectory = daemonsDirectory.resolve(key());
+    }
+
+    void execute(Properties properties) {
+        // A daemon may evict itself between us reading its state and connecting; in that case spawn a fresh one
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (request(connect(), properties)) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (attempt > 0) {
+                    throw new RuntimeException("Could not communicate with the Flix compiler daemon", e);
+                }
+            }
+            if (attempt > 0) {
+                throw new RuntimeException("Flix compiler daemon closed the connection; see " + daemonDirectory.resolve("daemon.log"));
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        synchronized (SPAWN_LOCKS.computeIfAbsent(daemonDirectory, k -> new Object())) {
+            Files.createDirectories(daemonDirectory);
+            try (var channel = FileChannel.open(daemonDirectory.resolve("daemon.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 var ignored = channel.lock()) {
+                Socket socket = tryConnect();
+                if (socket != null) {
+                    return socket;
+                }
+                return spawn();
+            }
+        }
+    }
+
+    private Socket tryConnect() {
+        Path stateFile = daemonDirectory.resolve("daemon.properties");
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (var reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            state.load(reader);
+            int port = Integer.parseInt(state.getProperty(DaemonProtocol.PORT_PROPERTY));
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+                var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(DaemonProtocol.VERSION);
+                DaemonProtocol.writeString(out, state.getProperty(DaemonProtocol.TOKEN_PROPERTY));
+                out.flush();
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Stale state left behind by a daemon that did not shut down cleanly
+            try {
+                Files.deleteIfExists(stateFile);
+            } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    private Socket spawn() throws IOException {
+        Path stateFile = daemonDirectory.resolve("daemon.properties");
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable);
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(classpath.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)));
+        command.add("dev.lukebemish.flix.gradle.wrapper.Bootstrap");
+        command.add(DaemonProtocol.SERVE_ARGUMENT);
+        command.add(stateFile.toAbsolutePath().toString());
+        command.add(Long.toString(idleTimeout.toSeconds()));
+        var builder = new ProcessBuilder(command);
+        builder.directory(daemonDirectory.toFile());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(daemonDirectory.resolve("daemon.log").toFile()));
+        Process process = builder.start();
+        process.getOutputStream().close();
+
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            Socket socket = tryConnect();
+            if (socket != null) {
+                return socket;
+            }
+            if (!process.isAlive()) {
+                throw new RuntimeException("Flix compiler daemon exited during startup; see " + daemonDirectory.resolve("daemon.log"));
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+                throw new RuntimeException(e);
+            }
+        }
+        process.destroy();
+        throw new RuntimeException("Timed out waiting for the Flix compiler daemon to start");
+    }
+
+    /**
+     * @return false if the daemon went away before answering
+     */
+    private boolean request(Socket socket, Properties properties) throws IOException {
+        try (socket) {
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            StringWriter writer = new StringWriter();
+            properties.store(writer, null);
+            DaemonProtocol.writeString(out, writer.toString());
+            out.writeInt(0);
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                byte frame;
+                try {
+                    frame = in.readByte();
+                } catch (EOFException e) {
+                    return false;
+                }
+                switch (frame) {
+                    case DaemonProtocol.FRAME_STDOUT -> write(System.out, DaemonProtocol.readBytes(in));
+                    case DaemonProtocol.FRAME_STDERR -> write(System.err, DaemonProtocol.readBytes(in));
+                    case DaemonProtocol.FRAME_EXIT -> {
+                        int status = in.readInt();
+                        String message = DaemonProtocol.readString(in);
+                        if (status != 0) {
+                            throw new RuntimeException(message);
+                        }
+                        return true;
+                    }
+                    default -> throw new IOException("Unknown frame type " + frame);
+                }
+            }
+        }
+    }
+
+    private static void write(PrintStream stream, byte[] bytes) {
+        stream.write(bytes, 0, bytes.length);
+        stream.flush();
+    }
+
+    private String key() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, javaExecutable);
+            // The wrapper jar lives at a content-hashed path, so its path alone identifies it
+            for (File file : classpath) {
+                update(digest, file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified());
+            }
+            for (String arg : configuredJvmArgs) {
+                update(digest, arg);
+            }
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 32);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
@@ -1,8 +1,11 @@
 package dev.lukebemish.flix.gradle.task;
 
+import org.gradle.api.Action;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.OutputDirectory;
 
 import java.util.Properties;
@@ -23,6 +26,20 @@ public abstract class FlixOptions {
     @org.gradle.api.tasks.Optional
     public abstract Property<LibLevel> getLibLevel();
 
+    /**
+     * How many threads the compiler may use. When unset, Gradle's worker budget is divided between the Flix compiles
+     * running at the same time.
+     */
+    @Internal
+    public abstract Property<Integer> getThreads();
+
+    @Nested
+    public abstract ForkOptions getFork();
+
+    public void fork(Action<? super ForkOptions> action) {
+        action.execute(getFork());
+    }
+
     public Properties create() {
         Properties properties = new Properties();
         if (getOutput().isPresent()) {
@@ -37,6 +54,9 @@ public Properties create() {
         if (getLibLevel().isPresent()) {
             properties.setProperty("libLevel", getLibLevel().get().getName());
         }
+        if (getThreads().isPresent()) {
+            properties.setProperty("threads", getThreads().get().toString());
+        }
         return properties;
     }
 }
@@ -1,31 +1,72 @@
 package dev.lukebemish.flix.gradle.task;
 
+import org.gradle.api.DefaultTask;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.process.internal.ExecActionFactory;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.jvm.toolchain.JavaToolchainService;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.DisableCachingByDefault;
 
 import javax.inject.Inject;
-import java.util.Properties;
 
-public abstract class FlixRun extends AbstractFlixCompile {
+/**
+ * Runs the compiled classes of a Flix application. Only the Flix runtime is needed on the classpath, so the compiler
+ * is never loaded.
+ */
+@DisableCachingByDefault(
+    because = "Runs an application, which produces no outputs"
+)
+public abstract class FlixRun extends DefaultTask {
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+    @Input
+    public abstract Property<String> getMainClass();
     @Input
     public abstract ListProperty<String> getArgs();
+    @Input
+    public abstract ListProperty<String> getJvmArgs();
+    @Nested
+    public abstract Property<JavaLauncher> getJavaLauncher();
+    @Internal
+    public abstract DirectoryProperty getWorkingDirectory();
 
     @Inject
-    public FlixRun(Project project, ExecActionFactory execActionFactory) {
-        super(project, execActionFactory);
+    protected JavaToolchainService getJavaToolchainService() {
+        throw new UnsupportedOperationException();
     }
 
-    @TaskAction
-    public void exec() {
-        Properties properties = getOptions().create();
-        addFlixInput(properties);
-        properties.put("command", "run");
+    @Inject
+    protected ExecOperations getExecOperations() {
+        throw new UnsupportedOperationException();
+    }
 
-        String[] args = getArgs().get().toArray(String[]::new);
+    @Inject
+    public FlixRun(Project project) {
+        JavaPluginExtension javaPluginExtension = project.getExtensions().getByType(JavaPluginExtension.class);
+        this.getJavaLauncher().convention(getJavaToolchainService().launcherFor(javaPluginExtension.getToolchain()));
+        this.getMainClass().convention("Main");
+        this.getWorkingDirectory().convention(project.getLayout().getProjectDirectory());
+    }
 
-        runExec(properties, args);
+    @TaskAction
+    public void exec() {
+        getExecOperations().javaexec(exec -> {
+            exec.classpath(getClasspath());
+            exec.getMainClass().set(getMainClass());
+            exec.args(getArgs().get());
+            exec.jvmArgs(getJvmArgs().get());
+            exec.setWorkingDir(getWorkingDirectory().get().getAsFile());
+            exec.setExecutable(getJavaLauncher().get().getExecutablePath().toString());
+        });
     }
 }
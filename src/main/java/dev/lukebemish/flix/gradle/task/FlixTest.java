@@ -0,0 +1,133 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the Flix test functions of a source set, split into shards that each run in their own forked JVM. Shards are
+ * balanced by the durations recorded on the previous run. The tests are not compiled again: shards run them from the
+ * classes and test index of the compile task.
+ */
+@CacheableTask
+public abstract class FlixTest extends AbstractFlixCompile {
+    /**
+     * Where JUnit XML results are written, one file per shard.
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getReportDirectory();
+    /**
+     * Test durations from previous runs, used to balance the shards. Updated after every run.
+     */
+    @Internal
+    public abstract RegularFileProperty getDurationsFile();
+    @Internal
+    public abstract Property<Integer> getShards();
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getTestIndex();
+    @Classpath
+    public abstract ConfigurableFileCollection getTestClasses();
+
+    @Inject
+    public FlixTest(Project project) {
+        super(project);
+        this.getShards().convention(project.getGradle().getStartParameter().getMaxWorkerCount());
+    }
+
+    @TaskAction
+    public void exec() {
+        int shards = Math.max(1, getShards().get());
+        File reportDir = getReportDirectory().get().getAsFile();
+        File durationsDir = new File(getTemporaryDir(), "durations");
+        try {
+            FileUtils.deleteDirectory(reportDir);
+            FileUtils.deleteDirectory(durationsDir);
+            Files.createDirectories(reportDir.toPath());
+            Files.createDirectories(durationsDir.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Properties properties = getOptions().create();
+        properties.remove("output");
+        properties.put("command", "test");
+        properties.put("testIndex", getTestIndex().get().getAsFile().getAbsolutePath());
+        List<String> testClasses = new ArrayList<>();
+        getTestClasses().forEach(file -> testClasses.add(file.getAbsolutePath()));
+        properties.put("testClasses", String.join(",", testClasses));
+        properties.put("testShardCount", Integer.toString(shards));
+        properties.put("testResults", reportDir.getAbsolutePath());
+        File durationsFile = getDurationsFile().get().getAsFile();
+        if (durationsFile.exists()) {
+            properties.put("testDurations", durationsFile.getAbsolutePath());
+        }
+
+        try {
+            awaitCompiler(jvmArgs -> {
+                WorkQueue queue = workerQueue(jvmArgs);
+                for (int shard = 0; shard < shards; shard++) {
+                    Properties shardProperties = new Properties();
+                    shardProperties.putAll(properties);
+                    shardProperties.put("testShard", Integer.toString(shard));
+                    shardProperties.put("testDurationsOut", new File(durationsDir, shard + ".properties").getAbsolutePath());
+                    queue.submit(FlixCompileAction.class, parameters -> {
+                        parameters.getProperties().set(asMap(shardProperties));
+                        parameters.getArgs().set(List.of());
+                    });
+                }
+                return queue;
+            });
+        } finally {
+            // Record durations even when tests fail, as failing runs are the ones most likely to be repeated
+            recordDurations(durationsDir, durationsFile);
+        }
+    }
+
+    private static void recordDurations(File durationsDir, File durationsFile) {
+        File[] shardFiles = durationsDir.listFiles((dir, name) -> name.endsWith(".properties"));
+        if (shardFiles == null || shardFiles.length == 0) {
+            return;
+        }
+        Properties durations = new Properties();
+        try {
+            if (durationsFile.exists()) {
+                try (var reader = Files.newBufferedReader(durationsFile.toPath(), StandardCharsets.UTF_8)) {
+                    durations.load(reader);
+                }
+            }
+            for (File shardFile : shardFiles) {
+                try (var reader = Files.newBufferedReader(shardFile.toPath(), StandardCharsets.UTF_8)) {
+                    durations.load(reader);
+                }
+            }
+            Files.createDirectories(durationsFile.toPath().toAbsolutePath().getParent());
+            try (var writer = Files.newBufferedWriter(durationsFile.toPath(), StandardCharsets.UTF_8)) {
+                durations.store(writer, "Flix test durations, in nanoseconds");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
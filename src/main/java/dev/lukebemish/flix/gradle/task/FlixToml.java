@@ -2,10 +2,8 @@
 
 import com.moandjiezana.toml.TomlWriter;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
 import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.file.RegularFileProperty;
-import org.gradle.api.plugins.BasePluginExtension;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
@@ -13,12 +11,10 @@
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
-import javax.inject.Inject;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public abstract class FlixToml extends DefaultTask {
@@ -45,17 +41,6 @@ public abstract class FlixToml extends DefaultTask {
     @Optional
     public abstract ListProperty<String> getPackageModules();
 
-    @Inject
-    public FlixToml(Project project) {
-        getPackageVersion().convention(project.provider(() ->
-            project.getVersion() == "unspecified" ? null : project.getVersion().toString()
-        ));
-        BasePluginExtension basePluginExtension = project.getExtensions().getByType(BasePluginExtension.class);
-        getPackageName().convention(basePluginExtension.getArchivesName());
-        getPackageModules().convention(basePluginExtension.getArchivesName().map(List::of));
-        getPackageDescription().convention(project.provider(project::getDescription));
-    }
-
     @TaskAction
     public void generate() throws IOException {
         Map<String, Object> tomlMap = new HashMap<>();
@@ -0,0 +1,44 @@
+package dev.lukebemish.flix.gradle.task;
+
+import dev.lukebemish.flix.gradle.dependencies.StaticRepository;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import java.io.IOException;
+import java.util.TreeSet;
+
+/**
+ * Downloads the metadata and fpkgs of GitHub packages into a file-based repository, which the plugin resolves from
+ * ahead of the repository layer whenever it exists.
+ */
+@DisableCachingByDefault(
+    because = "Downloads dependencies, which is no faster than fetching them from the cache"
+)
+public abstract class FlixVendor extends DefaultTask {
+    /**
+     * Packages to vendor, as {@code user/repository:version}.
+     */
+    @Input
+    public abstract SetProperty<String> getModules();
+    @OutputDirectory
+    public abstract DirectoryProperty getVendorDirectory();
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @TaskAction
+    public void vendor() throws IOException {
+        var modules = new TreeSet<String>(getModules().get()).stream().map(StaticRepository.Module::parse).toList();
+        StaticRepository.write(
+            getVendorDirectory().get().getAsFile().toPath(),
+            getCacheDirectory().get().getAsFile().toPath(),
+            modules
+        );
+        getLogger().lifecycle("Vendored {} flix packages into {}", modules.size(), getVendorDirectory().get().getAsFile());
+    }
+}
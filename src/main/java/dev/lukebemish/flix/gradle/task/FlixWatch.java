@@ -0,0 +1,51 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps a compiler running and recompiles as the sources change, printing diagnostics as it goes. Runs until the build
+ * is cancelled.
+ */
+@DisableCachingByDefault(
+    because = "Watches sources until cancelled, and produces no outputs"
+)
+public abstract class FlixWatch extends AbstractFlixCompile {
+    /**
+     * How long to wait for further edits after a change before recompiling.
+     */
+    @Internal
+    public abstract Property<Duration> getDebounce();
+
+    @Inject
+    public FlixWatch(Project project) {
+        super(project);
+        this.getDebounce().convention(Duration.ofMillis(200));
+    }
+
+    @TaskAction
+    public void exec() {
+        Properties properties = getOptions().create();
+        addFlixInput(properties);
+        properties.put("command", "watch");
+
+        List<String> watchDirectories = new ArrayList<>();
+        for (File directory : getSource()) {
+            watchDirectories.add(directory.getAbsolutePath());
+        }
+        properties.put("watchDirectories", String.join(",", watchDirectories));
+        properties.put("watchDebounce", Long.toString(getDebounce().get().toMillis()));
+
+        runExec(properties);
+    }
+}
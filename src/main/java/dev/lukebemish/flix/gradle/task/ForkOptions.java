@@ -0,0 +1,84 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM settings for the process the Flix compiler is forked into. None of these change what the compiler produces.
+ */
+public abstract class ForkOptions {
+    @Internal
+    public abstract ListProperty<String> getJvmArgs();
+
+    /**
+     * Initial heap size, in the format of {@code -Xms}, such as {@code 512m}.
+     */
+    @Internal
+    public abstract Property<String> getMinHeapSize();
+
+    /**
+     * Maximum heap size, in the format of {@code -Xmx}, such as {@code 4g}. Takes precedence over {@link #getAutoHeap()}.
+     */
+    @Internal
+    public abstract Property<String> getMaxHeapSize();
+
+    @Internal
+    public abstract Property<GarbageCollector> getGarbageCollector();
+
+    /**
+     * Whether the fork should log garbage collections to a file in the task's temporary directory.
+     */
+    @Internal
+    public abstract Property<Boolean> getGcLogging();
+
+    /**
+     * Whether to size the maximum heap from the size of the sources and fpkgs being compiled, retrying once with a
+     * larger heap should the compiler run out of memory.
+     */
+    @Internal
+    public abstract Property<Boolean> getAutoHeap();
+
+    public ForkOptions() {
+        this.getGcLogging().convention(false);
+        this.getAutoHeap().convention(false);
+    }
+
+    List<String> create(String maxHeapSize, File gcLogDirectory) {
+        List<String> args = new ArrayList<>();
+        if (getMinHeapSize().isPresent()) {
+            args.add("-Xms" + getMinHeapSize().get());
+        }
+        if (maxHeapSize != null) {
+            args.add("-Xmx" + maxHeapSize);
+        }
+        if (getGarbageCollector().isPresent()) {
+            String name = getGarbageCollector().get().getName();
+            args.add(switch (name) {
+                case GarbageCollector.SERIAL -> "-XX:+UseSerialGC";
+                case GarbageCollector.PARALLEL -> "-XX:+UseParallelGC";
+                case GarbageCollector.G1 -> "-XX:+UseG1GC";
+                case GarbageCollector.Z -> "-XX:+UseZGC";
+                case GarbageCollector.SHENANDOAH -> "-XX:+UseShenandoahGC";
+                default -> throw new RuntimeException("Unknown garbage collector " + name);
+            });
+        }
+        if (getGcLogging().get() && gcLogDirectory != null) {
+            args.add("-Xlog:gc*:file=" + new File(gcLogDirectory, "gc-%p.log").getAbsolutePath() + ":uptime,level,tags");
+        }
+        args.addAll(getJvmArgs().get());
+        return args;
+    }
+
+    /**
+     * @return the arguments set explicitly on these options, leaving out the automatically sized heap and the GC log,
+     * which differ between tasks
+     */
+    List<String> configured() {
+        return create(getMaxHeapSize().getOrNull(), null);
+    }
+}
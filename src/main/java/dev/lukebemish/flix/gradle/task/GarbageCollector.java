@@ -0,0 +1,11 @@
+package dev.lukebemish.flix.gradle.task;
+
+import org.gradle.api.Named;
+
+public abstract class GarbageCollector implements Named {
+    public static final String SERIAL = "serial";
+    public static final String PARALLEL = "parallel";
+    public static final String G1 = "g1";
+    public static final String Z = "z";
+    public static final String SHENANDOAH = "shenandoah";
+}
@@ -0,0 +1,81 @@
+package dev.lukebemish.flix.gradle.task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors a staging directory into an output directory, touching only files whose content differs. Leaving unchanged
+ * files alone keeps their timestamps, so consumers of the output do not see them as modified.
+ */
+final class OutputSync {
+    private OutputSync() {}
+
+    record Result(int written, int unchanged, int deleted) {}
+
+    static Result sync(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        Set<Path> expected = new HashSet<>();
+        int written = 0;
+        int unchanged = 0;
+        List<Path> sources;
+        try (Stream<Path> stream = Files.walk(from)) {
+            sources = stream.toList();
+        }
+        for (Path source : sources) {
+            Path relative = from.relativize(source);
+            Path target = to.resolve(relative.toString());
+            expected.add(relative);
+            if (Files.isDirectory(source)) {
+                if (Files.isRegularFile(target)) {
+                    Files.delete(target);
+                }
+                Files.createDirectories(target);
+            } else if (Files.isRegularFile(target) && Files.size(target) == Files.size(source) && Files.mismatch(source, target) == -1) {
+                unchanged++;
+            } else {
+                if (Files.isDirectory(target)) {
+                    deleteRecursively(target);
+                }
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                written++;
+            }
+        }
+
+        int deleted = 0;
+        List<Path> existing;
+        try (Stream<Path> stream = Files.walk(to)) {
+            // Deepest first, so directories are empty by the time they are visited
+            existing = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : existing) {
+            Path relative = to.relativize(path);
+            if (!relative.toString().isEmpty() && !expected.contains(relative)) {
+                if (!Files.isDirectory(path)) {
+                    deleted++;
+                }
+                Files.delete(path);
+            }
+        }
+        return new Result(written, unchanged, deleted);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> stream = Files.walk(path)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
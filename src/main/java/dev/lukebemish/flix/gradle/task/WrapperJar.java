@@ -0,0 +1,95 @@
+package dev.lukebemish.flix.gradle.task;
+
+import dev.lukebemish.flix.gradle.wrapper.WrapperFinder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * The wrapper classes, extracted once per cache directory into a jar whose location is derived from their content. A
+ * stable jar location lets forked compilers share a class data sharing archive, which a directory could not.
+ */
+final class WrapperJar {
+    private static final Map<Path, Path> LOCATED = new ConcurrentHashMap<>();
+
+    private WrapperJar() {}
+
+    static Path locate(Path cacheDirectory) {
+        return LOCATED.computeIfAbsent(cacheDirectory, WrapperJar::extract);
+    }
+
+    private static Path extract(Path cacheDirectory) {
+        URL classUrl = WrapperFinder.class.getResource(WrapperFinder.class.getSimpleName() + ".class");
+        if (classUrl == null) {
+            throw new RuntimeException("Could not find class " + WrapperFinder.class.getSimpleName());
+        }
+        var wrapperClassPath = classUrl.toExternalForm();
+        String manifestPath = wrapperClassPath.substring(0, wrapperClassPath.lastIndexOf("!") + 1) +
+            "/META-INF/MANIFEST.MF";
+
+        try {
+            Map<String, byte[]> classes = new TreeMap<>();
+            try (var is = new URL(manifestPath).openStream()) {
+                Manifest mf = new Manifest(is);
+                for (var className : mf.getMainAttributes().getValue("Flix-Gradle-Wrapper-Classes").split(",")) {
+                    try (var classStream = WrapperFinder.class.getResourceAsStream("/" + className)) {
+                        if (classStream == null) {
+                            throw new RuntimeException("Could not find class " + className);
+                        }
+                        classes.put(className, classStream.readAllBytes());
+                    }
+                }
+            }
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            classes.forEach((name, bytes) -> {
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(bytes);
+            });
+            Path directory = cacheDirectory.resolve("wrapper").resolve(HexFormat.of().formatHex(digest.digest()).substring(0, 32));
+            Path jar = directory.resolve("flix-gradle-wrapper.jar");
+            if (Files.exists(jar)) {
+                return jar;
+            }
+
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "flix-gradle-wrapper", ".tmp");
+            try {
+                try (OutputStream os = Files.newOutputStream(temp);
+                     var jarStream = new JarOutputStream(os)) {
+                    for (var entry : classes.entrySet()) {
+                        var jarEntry = new JarEntry(entry.getKey());
+                        jarEntry.setTime(0);
+                        jarStream.putNextEntry(jarEntry);
+                        jarStream.write(entry.getValue());
+                        jarStream.closeEntry();
+                    }
+                }
+                Files.move(temp, jar, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ignored) {
+                // Another build extracted the same content first
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return jar;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
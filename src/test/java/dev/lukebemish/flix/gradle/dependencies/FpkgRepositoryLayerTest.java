@@ -0,0 +1,78 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FpkgRepositoryLayerTest {
+    private static final int REQUESTS = 16;
+    private static final long UPSTREAM_DELAY_MILLIS = 1000;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void concurrentMetadataRequestsTakeOneRoundTrip(@TempDir Path cacheDirectory) throws Exception {
+        ExecutorService upstreamExecutor = Executors.newCachedThreadPool();
+        HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.setExecutor(upstreamExecutor);
+        upstream.createContext("/", exchange -> {
+            try {
+                Thread.sleep(UPSTREAM_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "[package]\nname = \"test\"\n".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        upstream.start();
+
+        String previousUrl = System.getProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME);
+        System.setProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME, "http://127.0.0.1:" + upstream.getAddress().getPort() + "/");
+        try (var layer = FpkgRepositoryLayer.startServer(cacheDirectory)) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            long start = System.nanoTime();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                String repository = "repo" + i;
+                var uri = layer.uri().resolve(FpkgRepositoryLayer.HANDLER_PREFIX + "user/" + repository + "/1.0.0/user/" + repository + "-1.0.0.module");
+                responses.add(client.sendAsync(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString()));
+            }
+            for (var response : responses) {
+                assertEquals(200, response.join().statusCode());
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Handled one at a time, the requests would take REQUESTS round-trips; allow slack for a cold JVM
+            assertTrue(elapsedMillis < 3 * UPSTREAM_DELAY_MILLIS, () -> REQUESTS + " concurrent requests took " + elapsedMillis + " ms");
+            var summary = (Map<String, Object>) layer.metrics().summary().get("upstream");
+            assertEquals((long) REQUESTS, summary.get("requests"));
+        } finally {
+            if (previousUrl == null) {
+                System.clearProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME);
+            } else {
+                System.setProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME, previousUrl);
+            }
+            upstream.stop(0);
+            upstreamExecutor.shutdownNow();
+        }
+    }
+}
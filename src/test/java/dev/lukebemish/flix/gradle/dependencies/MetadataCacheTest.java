@@ -0,0 +1,63 @@
+package dev.lukebemish.flix.gradle.dependencies;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MetadataCacheTest {
+    private static final String ETAG = "\"v1\"";
+
+    @Test
+    void entriesAreRevalidatedOncePerBuild(@TempDir Path cacheDirectory) throws Exception {
+        // The If-None-Match header of each request upstream, or "" for none
+        List<String> conditions = new CopyOnWriteArrayList<>();
+        HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.createContext("/", exchange -> {
+            String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+            conditions.add(condition == null ? "" : condition);
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(condition)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = "[package]\nname = \"test\"\n".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        upstream.start();
+
+        String previousUrl = System.getProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME);
+        System.setProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME, "http://127.0.0.1:" + upstream.getAddress().getPort() + "/");
+        try {
+            var firstBuild = new MetadataCache(cacheDirectory, new UpstreamClient());
+            byte[] metadata = firstBuild.metadata("user", "repo", "1.0.0").orElseThrow();
+            firstBuild.metadata("user", "repo", "1.0.0");
+            assertEquals(List.of(""), conditions);
+
+            // Entries checked in the same millisecond as the next build starts would count as checked by it
+            Thread.sleep(2);
+            var secondBuild = new MetadataCache(cacheDirectory, new UpstreamClient());
+            assertArrayEquals(metadata, secondBuild.metadata("user", "repo", "1.0.0").orElseThrow());
+            secondBuild.metadata("user", "repo", "1.0.0");
+            assertEquals(List.of("", ETAG), conditions);
+        } finally {
+            if (previousUrl == null) {
+                System.clearProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME);
+            } else {
+                System.setProperty(UpstreamClient.UPSTREAM_URL_PROP_NAME, previousUrl);
+            }
+            upstream.stop(0);
+        }
+    }
+}
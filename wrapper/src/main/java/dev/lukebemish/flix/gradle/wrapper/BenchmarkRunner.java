@@ -0,0 +1,92 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.runtime.CompilationResult;
+import ca.uwaterloo.flix.runtime.TestFn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.StringJoiner;
+
+/**
+ * Measures the benchmark functions of a compiled Flix program within a single fork. Each iteration calls a function
+ * repeatedly for a fixed time and records the mean time per call.
+ * <p>
+ * The compiler reports no benchmark functions of its own, so benchmarks are marked {@code @Test} in the benchmark
+ * source set and found the way tests are; those also marked {@code @Skip} are left out.
+ */
+final class BenchmarkRunner {
+    private record Benchmark(String name, scala.Function0<Object> run) {}
+
+    // Keeps results reachable so that the JIT cannot discard the calls that produce them
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    private final Properties properties;
+
+    BenchmarkRunner(Properties properties) {
+        this.properties = properties;
+    }
+
+    void run(CompilationResult result) throws IOException {
+        int warmupIterations = Integer.parseInt(properties.getProperty("benchmarkWarmupIterations", "5"));
+        int iterations = Integer.parseInt(properties.getProperty("benchmarkIterations", "5"));
+        long iterationNanos = Long.parseLong(properties.getProperty("benchmarkIterationMillis", "1000")) * 1_000_000L;
+
+        Properties results = new Properties();
+        for (Benchmark benchmark : benchmarks(result)) {
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(benchmark, iterationNanos);
+            }
+            StringJoiner samples = new StringJoiner(",");
+            for (int i = 0; i < iterations; i++) {
+                samples.add(String.format(Locale.ROOT, "%.3f", iteration(benchmark, iterationNanos)));
+            }
+            System.out.println("Benchmarked " + benchmark.name());
+            results.setProperty(benchmark.name(), samples.toString());
+        }
+
+        Path file = Path.of(properties.getProperty("benchmarkResults"));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            results.store(writer, "Nanoseconds per call, one sample per iteration");
+        }
+    }
+
+    /**
+     * @return the mean time per call in nanoseconds
+     */
+    private static double iteration(Benchmark benchmark, long iterationNanos) {
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink = benchmark.run().apply();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / calls;
+    }
+
+    private static List<Benchmark> benchmarks(CompilationResult result) {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        var iterator = result.getTests().iterator();
+        while (iterator.hasNext()) {
+            TestFn function = iterator.next()._2();
+            if (!function.skip()) {
+                benchmarks.add(new Benchmark(function.sym().toString(), function.run()));
+            }
+        }
+        if (benchmarks.isEmpty()) {
+            throw new RuntimeException("No benchmark functions found; mark them @Test in the benchmark source set");
+        }
+        benchmarks.sort(Comparator.comparing(Benchmark::name));
+        return benchmarks;
+    }
+}
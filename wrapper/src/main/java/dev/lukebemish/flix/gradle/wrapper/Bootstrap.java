@@ -1,5 +1,7 @@
 package dev.lukebemish.flix.gradle.wrapper;
 
+import java.util.Arrays;
+
 public final class Bootstrap {
     private Bootstrap() {}
 
@@ -9,6 +11,10 @@ public static void main(String[] args) {
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Could not find flix standard library");
         }
-        Wrapper.main(args);
+        if (args.length > 0 && args[0].equals(DaemonProtocol.SERVE_ARGUMENT)) {
+            Wrapper.serve(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            Wrapper.main(args);
+        }
     }
 }
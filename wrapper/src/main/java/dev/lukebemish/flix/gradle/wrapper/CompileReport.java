@@ -0,0 +1,205 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.api.Flix;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Timing and memory figures for a single compile, written as JSON so that they can be charted across builds.
+ * <p>
+ * Peak heap and GC figures are process wide. The compiler daemon runs compiles of different sessions side by side, so
+ * the peak is only reset when no other compile is in flight, and a report whose compile overlapped another is marked
+ * as such; its memory figures then cover both.
+ */
+final class CompileReport {
+    private record Phase(String name, long nanos) {}
+
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final AtomicLong STARTED = new AtomicLong();
+
+    private final Flix flix;
+    private final FlixOptions options;
+    private final long started;
+    private boolean overlapped;
+    private final long startNanos;
+    private final long gcMillisBefore;
+    private final long gcCountBefore;
+
+    private CompileReport(Flix flix, FlixOptions options) {
+        this.flix = flix;
+        this.options = options;
+        this.started = STARTED.incrementAndGet();
+        this.overlapped = IN_FLIGHT.getAndIncrement() != 0;
+        if (!overlapped) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+        this.gcMillisBefore = gcMillis();
+        this.gcCountBefore = gcCount();
+        this.startNanos = System.nanoTime();
+    }
+
+    static CompileReport start(Flix flix, FlixOptions options) {
+        return new CompileReport(flix, options);
+    }
+
+    void finish(boolean success) {
+        long totalNanos = System.nanoTime() - startNanos;
+        overlapped |= STARTED.get() != started;
+        IN_FLIGHT.decrementAndGet();
+        if (options.report() == null && !options.reportSummary()) {
+            return;
+        }
+
+        // Flix restarts its phase timers with every compile, so the timers now are those of this compile alone
+        List<Phase> phases = phases(flix);
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        long gcMillis = gcMillis() - gcMillisBefore;
+        long gcCount = gcCount() - gcCountBefore;
+        long generatedClasses = countClasses(options.outputDirectory());
+
+        if (options.report() != null) {
+            StringBuilder json = new StringBuilder();
+            json.append("{\n");
+            json.append("  \"success\": ").append(success).append(",\n");
+            json.append("  \"totalMillis\": ").append(millis(totalNanos)).append(",\n");
+            json.append("  \"phases\": [");
+            for (int i = 0; i < phases.size(); i++) {
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("    {\"name\": ").append(quote(phases.get(i).name()))
+                    .append(", \"millis\": ").append(millis(phases.get(i).nanos())).append("}");
+            }
+            json.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+            json.append("  \"peakHeapBytes\": ").append(peakHeap).append(",\n");
+            json.append("  \"gcMillis\": ").append(gcMillis).append(",\n");
+            json.append("  \"gcCount\": ").append(gcCount).append(",\n");
+            json.append("  \"overlapped\": ").append(overlapped).append(",\n");
+            json.append("  \"generatedClasses\": ").append(generatedClasses).append(",\n");
+            json.append("  \"inputs\": {\"flix\": ").append(options.sourceFlix().size())
+                .append(", \"fpkg\": ").append(options.sourceFlixPkgs().size())
+                .append(", \"jar\": ").append(options.sourceJars().size()).append("}\n");
+            json.append("}\n");
+            try {
+                Files.createDirectories(options.report().toAbsolutePath().getParent());
+                Files.writeString(options.report(), json, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (options.reportSummary()) {
+            StringBuilder summary = new StringBuilder();
+            summary.append("Flix compile ").append(success ? "finished" : "failed").append(" in ").append(millis(totalNanos)).append(" ms");
+            if (!phases.isEmpty()) {
+                summary.append(" (");
+                for (int i = 0; i < phases.size(); i++) {
+                    if (i != 0) {
+                        summary.append(", ");
+                    }
+                    summary.append(phases.get(i).name()).append(" ").append(millis(phases.get(i).nanos())).append(" ms");
+                }
+                summary.append(")");
+            }
+            summary.append("; peak heap ").append(peakHeap / (1024 * 1024)).append(" MiB")
+                .append(", GC ").append(gcMillis).append(" ms in ").append(gcCount).append(" collections")
+                .append(", ").append(generatedClasses).append(" classes from ")
+                .append(options.sourceFlix().size()).append(" sources and ")
+                .append(options.sourceFlixPkgs().size()).append(" fpkgs");
+            if (overlapped) {
+                summary.append(" (memory figures include overlapping compiles)");
+            }
+            System.out.println(summary);
+        }
+    }
+
+    private static List<Phase> phases(Flix flix) {
+        // Phase timers are not part of the stable API, so look them up reflectively and degrade to nothing
+        List<Phase> phases = new ArrayList<>();
+        try {
+            var timers = (scala.collection.Iterable<?>) flix.getClass().getMethod("phaseTimers").invoke(flix);
+            var iterator = timers.iterator();
+            while (iterator.hasNext()) {
+                Object timer = iterator.next();
+                String name = (String) timer.getClass().getMethod("phase").invoke(timer);
+                long time = ((Number) timer.getClass().getMethod("time").invoke(timer)).longValue();
+                phases.add(new Phase(name, time));
+            }
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return List.of();
+        }
+        return phases;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long countClasses(Path directory) {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return 0;
+        }
+        try (Stream<Path> stream = Files.walk(directory)) {
+            return stream.filter(p -> p.getFileName().toString().endsWith(".class")).count();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,226 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class CompilerServer {
+    private static final int MAX_SESSIONS = 8;
+
+    private final Path stateFile;
+    private final Duration idleTimeout;
+    private final String token;
+    private final Map<String, IncrementalSession> sessions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IncrementalSession> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    });
+    private final Map<String, Object> sessionLocks = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final ThreadOutputStream stdout = new ThreadOutputStream(System.out);
+    private final ThreadOutputStream stderr = new ThreadOutputStream(System.err);
+
+    CompilerServer(Path stateFile, Duration idleTimeout) {
+        this.stateFile = stateFile;
+        this.idleTimeout = idleTimeout;
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        this.token = HexFormat.of().formatHex(bytes);
+    }
+
+    void run() throws IOException {
+        // Requests run side by side, so output is routed to the connection of whichever thread writes it
+        System.setOut(new PrintStream(stdout, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
+        ExecutorService handlers = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "flix-daemon-connection"));
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(Math.toIntExact(idleTimeout.toMillis()));
+            writeState(server.getLocalPort());
+            try {
+                while (true) {
+                    Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (active.get() > 0) {
+                            // Still compiling, which is not idle
+                            continue;
+                        }
+                        // Idle for too long; evict ourselves so the memory is returned
+                        return;
+                    } catch (SocketException e) {
+                        if (server.isClosed()) {
+                            // Closed by a handler that ran out of memory
+                            return;
+                        }
+                        throw e;
+                    }
+                    active.incrementAndGet();
+                    handlers.execute(() -> {
+                        try (socket) {
+                            if (!handle(socket)) {
+                                server.close();
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace(stderr.fallback);
+                        } finally {
+                            active.decrementAndGet();
+                        }
+                    });
+                }
+            } finally {
+                Files.deleteIfExists(stateFile);
+                // Let requests already accepted finish before the process exits
+                handlers.shutdown();
+            }
+        }
+    }
+
+    private void writeState(int port) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(DaemonProtocol.PORT_PROPERTY, Integer.toString(port));
+        state.setProperty(DaemonProtocol.TOKEN_PROPERTY, token);
+        state.setProperty("pid", Long.toString(ProcessHandle.current().pid()));
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        Files.createFile(temp);
+        try {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {}
+        try (var writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            state.store(writer, "Flix compiler daemon");
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return whether the daemon should keep serving requests
+     */
+    private boolean handle(Socket socket) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readInt() != DaemonProtocol.VERSION) {
+            writeExit(out, 1, "Unsupported protocol version");
+            return true;
+        }
+        if (!token.equals(DaemonProtocol.readString(in))) {
+            return true;
+        }
+        Properties properties = new Properties();
+        properties.load(new StringReader(DaemonProtocol.readString(in)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = DaemonProtocol.readString(in);
+        }
+
+        String command = properties.getProperty("command", "");
+        if (!command.toUpperCase(Locale.ROOT).equals(Wrapper.FlixCommand.COMPILE.name())) {
+            writeExit(out, 1, "The compiler daemon does not accept the command " + command);
+            return true;
+        }
+
+        int status = 0;
+        String message = "";
+        boolean keepServing = true;
+        try (var requestOut = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDOUT), true, StandardCharsets.UTF_8);
+             var requestErr = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDERR), true, StandardCharsets.UTF_8)) {
+            stdout.current.set(requestOut);
+            stderr.current.set(requestErr);
+            try {
+                // Compiles of the same session share one Flix instance, so they must not overlap
+                String session = properties.getProperty("session");
+                Object lock = session == null ? new Object() : sessionLocks.computeIfAbsent(session, k -> new Object());
+                synchronized (lock) {
+                    Wrapper.execute(properties, args, sessions);
+                }
+            } catch (OutOfMemoryError e) {
+                sessions.clear();
+                status = 1;
+                message = Wrapper.OUT_OF_MEMORY;
+                keepServing = false;
+            } catch (Throwable t) {
+                status = 1;
+                message = t.getMessage() == null ? t.getClass().getName() : t.getMessage();
+                if (!Wrapper.COMPILATION_FAILED.equals(t.getMessage())) {
+                    t.printStackTrace(requestErr);
+                }
+            }
+        } finally {
+            stdout.current.remove();
+            stderr.current.remove();
+        }
+        writeExit(out, status, message);
+        return keepServing;
+    }
+
+    private static void writeExit(DataOutputStream out, int status, String message) throws IOException {
+        synchronized (out) {
+            out.writeByte(DaemonProtocol.FRAME_EXIT);
+            out.writeInt(status);
+            DaemonProtocol.writeString(out, message);
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends output to the stream set for the current thread, or to the daemon's own output otherwise, such as for
+     * threads the compiler starts itself.
+     */
+    private static final class ThreadOutputStream extends OutputStream {
+        private final ThreadLocal<PrintStream> current = new ThreadLocal<>();
+        private final PrintStream fallback;
+
+        private ThreadOutputStream(PrintStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private PrintStream target() {
+            PrintStream stream = current.get();
+            return stream == null ? fallback : stream;
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            target().flush();
+        }
+    }
+}
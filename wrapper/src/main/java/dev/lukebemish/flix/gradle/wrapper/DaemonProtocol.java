@@ -0,0 +1,84 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format shared by the compiler daemon and the plugin-side client. A request is the protocol version, the
+ * daemon token, the serialized properties and the program arguments; the daemon answers with a sequence of output
+ * frames terminated by a single exit frame.
+ */
+public final class DaemonProtocol {
+    private DaemonProtocol() {}
+
+    public static final int VERSION = 1;
+
+    public static final String SERVE_ARGUMENT = "--serve";
+
+    public static final String PORT_PROPERTY = "port";
+    public static final String TOKEN_PROPERTY = "token";
+
+    public static final byte FRAME_EXIT = 0;
+    public static final byte FRAME_STDOUT = 1;
+    public static final byte FRAME_STDERR = 2;
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte frame;
+
+        FrameOutputStream(DataOutputStream out, byte frame) {
+            this.out = out;
+            this.frame = frame;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(frame);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -18,7 +18,13 @@ class FlixOptions {
     private final List<Path> sourceJars = new ArrayList<>();
     private final List<Path> sourceFlix = new ArrayList<>();
     private final List<Path> sourceFlixPkgs = new ArrayList<>();
+    private final List<Path> changedFlix = new ArrayList<>();
     private LibLevel libLevel;
+    private Integer threads;
+    private final List<Path> watchDirectories = new ArrayList<>();
+    private long watchDebounceMillis = 200;
+    private Path report;
+    private boolean reportSummary;
 
     void read(Properties properties) {
         String output = properties.getProperty("output");
@@ -52,6 +58,20 @@ void read(Properties properties) {
             };
         }
 
+        String threads = properties.getProperty("threads");
+        if (threads != null) {
+            this.threads = Integer.parseInt(threads);
+        }
+
+        String watchDirectories = properties.getProperty("watchDirectories");
+        if (watchDirectories != null) {
+            Arrays.stream(watchDirectories.split(",")).filter(s->!s.isEmpty()).map(Path::of).forEach(this.watchDirectories::add);
+        }
+        String watchDebounce = properties.getProperty("watchDebounce");
+        if (watchDebounce != null) {
+            this.watchDebounceMillis = Long.parseLong(watchDebounce);
+        }
+
         String sourceJars = properties.getProperty("sourceJars");
         if (sourceJars != null) {
             Arrays.stream(sourceJars.split(",")).filter(s->!s.isEmpty()).map(Path::of).forEach(this.sourceJars::add);
@@ -64,6 +84,51 @@ void read(Properties properties) {
         if (sourceFlixPkgs != null) {
             Arrays.stream(sourceFlixPkgs.split(",")).filter(s->!s.isEmpty()).map(Path::of).forEach(this.sourceFlixPkgs::add);
         }
+        String report = properties.getProperty("report");
+        if (report != null) {
+            this.report = Path.of(report);
+        }
+        this.reportSummary = Boolean.parseBoolean(properties.getProperty("reportSummary"));
+        String changedFlix = properties.getProperty("changedFlix");
+        if (changedFlix != null) {
+            Arrays.stream(changedFlix.split(",")).filter(s->!s.isEmpty()).map(Path::of).forEach(this.changedFlix::add);
+        }
+    }
+
+    Path outputDirectory() {
+        return outputDirectory;
+    }
+
+    List<Path> sourceJars() {
+        return sourceJars;
+    }
+
+    List<Path> sourceFlix() {
+        return sourceFlix;
+    }
+
+    List<Path> sourceFlixPkgs() {
+        return sourceFlixPkgs;
+    }
+
+    Path report() {
+        return report;
+    }
+
+    boolean reportSummary() {
+        return reportSummary;
+    }
+
+    List<Path> watchDirectories() {
+        return watchDirectories;
+    }
+
+    long watchDebounceMillis() {
+        return watchDebounceMillis;
+    }
+
+    List<Path> changedFlix() {
+        return changedFlix;
     }
 
     void configure(Flix flix) {
@@ -110,6 +175,7 @@ private Optional<Object> handleProperty(String option) {
             case "xstrictmono" -> strictMonomorphism == null ? Optional.empty() : Optional.of(strictMonomorphism);
             case "target" -> jvmTarget == null ? Optional.empty() : Optional.of(jvmTarget);
             case "lib" -> libLevel == null ? Optional.empty() : Optional.of(libLevel);
+            case "threads" -> threads == null ? Optional.empty() : Optional.of(threads);
             default -> Optional.empty();
         };
     }
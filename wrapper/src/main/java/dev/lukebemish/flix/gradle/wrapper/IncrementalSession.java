@@ -0,0 +1,84 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.api.Flix;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A {@link Flix} instance retained between compiles of the same task, so that the compiler can reuse the work done
+ * for sources that have not changed. Only ever used from a process that outlives a single compile.
+ */
+final class IncrementalSession {
+    // Properties that may differ between compiles of a session without starting a new one
+    private static final Set<String> SOURCE_PROPERTIES = Set.of("sourceFlix", "changedFlix", "incremental", "session", "report", "reportSummary", "threads");
+
+    private final Flix flix;
+    private final String configuration;
+    private final Set<Path> sources;
+
+    private IncrementalSession(Flix flix, String configuration, Set<Path> sources) {
+        this.flix = flix;
+        this.configuration = configuration;
+        this.sources = sources;
+    }
+
+    static Flix open(Properties properties, FlixOptions options, Map<String, IncrementalSession> sessions) {
+        String name = properties.getProperty("session");
+        String configuration = configurationOf(properties);
+        if (name != null && Boolean.parseBoolean(properties.getProperty("incremental"))) {
+            IncrementalSession existing = sessions.get(name);
+            if (existing != null && existing.configuration.equals(configuration)) {
+                existing.update(options);
+                return existing.flix;
+            }
+        }
+
+        Flix flix = new Flix();
+        flix.setOptions(options.create());
+        options.configure(flix);
+        if (name != null) {
+            sessions.put(name, new IncrementalSession(flix, configuration, new HashSet<>(options.sourceFlix())));
+        }
+        return flix;
+    }
+
+    private void update(FlixOptions options) {
+        // The thread count depends on what else the build is doing, so it is re-applied on every compile
+        flix.setOptions(options.create());
+        Set<Path> current = new HashSet<>(options.sourceFlix());
+        // Additions and removals come from the full source list, which cannot drift apart from the session the way
+        // the build history can
+        for (Path removed : sources) {
+            if (!current.contains(removed)) {
+                flix.remFlix(removed);
+            }
+        }
+        for (Path path : current) {
+            if (!sources.contains(path)) {
+                flix.addFlix(path);
+            }
+        }
+        for (Path changed : options.changedFlix()) {
+            if (current.contains(changed) && sources.contains(changed)) {
+                flix.addFlix(changed);
+            }
+        }
+        sources.clear();
+        sources.addAll(current);
+    }
+
+    private static String configurationOf(Properties properties) {
+        Map<String, String> configuration = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!SOURCE_PROPERTIES.contains(key)) {
+                configuration.put(key, properties.getProperty(key));
+            }
+        }
+        return configuration.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.runtime.CompilationResult;
+import ca.uwaterloo.flix.runtime.TestFn;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The test functions of a compiled program, and the static methods of the compiled classes that run them. Written
+ * once when the tests are compiled, so that test shards can run straight from the compiled classes rather than each
+ * compiling the tests again.
+ */
+final class TestIndex {
+    // Flix compiles the definitions of a namespace to static methods, prefixed like this, on a class in its package
+    private static final String METHOD_PREFIX = "m_";
+
+    /**
+     * @param parameterTypes the binary names of the parameter types of the method, comma separated
+     */
+    record Entry(String name, boolean skip, String className, String methodName, String parameterTypes) {}
+
+    private TestIndex() {}
+
+    static void write(CompilationResult result, Path classes, Path file) throws IOException {
+        List<TestFn> tests = new ArrayList<>();
+        var iterator = result.getTests().iterator();
+        while (iterator.hasNext()) {
+            tests.add(iterator.next()._2());
+        }
+
+        Properties index = new Properties();
+        index.setProperty("count", Integer.toString(tests.size()));
+        List<String> problems = new ArrayList<>();
+        try (var loader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, TestIndex.class.getClassLoader())) {
+            for (int i = 0; i < tests.size(); i++) {
+                TestFn test = tests.get(i);
+                String name = test.sym().toString();
+                index.setProperty(i + ".name", name);
+                index.setProperty(i + ".skip", Boolean.toString(test.skip()));
+                List<Method> candidates = candidates(loader, classes, name);
+                if (candidates.size() != 1) {
+                    problems.add(candidates.isEmpty()
+                        ? "no compiled method for test " + name
+                        : "test " + name + " matches several compiled methods: " + candidates.stream().map(TestIndex::describe).toList());
+                    continue;
+                }
+                Method method = candidates.get(0);
+                index.setProperty(i + ".class", method.getDeclaringClass().getName());
+                index.setProperty(i + ".method", method.getName());
+                index.setProperty(i + ".parameters", parameterTypes(method));
+            }
+        }
+        if (!problems.isEmpty()) {
+            // A test that cannot be pinned to one method now would only fail, or run the wrong code, in some shard later
+            throw new RuntimeException("Could not index the Flix tests: " + String.join("; ", problems));
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            index.store(writer, "Flix test index");
+        }
+    }
+
+    static List<Entry> read(Path file) throws IOException {
+        Properties index = new Properties();
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            index.load(reader);
+        }
+        int count = Integer.parseInt(index.getProperty("count", "0"));
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry(
+                index.getProperty(i + ".name"),
+                Boolean.parseBoolean(index.getProperty(i + ".skip")),
+                index.getProperty(i + ".class"),
+                index.getProperty(i + ".method"),
+                index.getProperty(i + ".parameters", "")
+            ));
+        }
+        return entries;
+    }
+
+    static String parameterTypes(Method method) {
+        return Arrays.stream(method.getParameterTypes()).map(Class::getName).collect(Collectors.joining(","));
+    }
+
+    /**
+     * The static methods a test symbol may have been compiled to. Flix puts the definitions of a namespace on a class
+     * in the package of that namespace, so only the classes directly in that package are searched.
+     */
+    private static List<Method> candidates(ClassLoader loader, Path classes, String symbol) throws IOException {
+        int split = symbol.lastIndexOf('.');
+        String namespace = split < 0 ? "" : symbol.substring(0, split);
+        String methodName = METHOD_PREFIX + symbol.substring(split + 1);
+        Path packageDirectory = namespace.isEmpty() ? classes : classes.resolve(namespace.replace('.', '/'));
+        List<Method> candidates = new ArrayList<>();
+        if (!Files.isDirectory(packageDirectory)) {
+            return candidates;
+        }
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.list(packageDirectory)) {
+            classFiles = files.filter(path -> path.toString().endsWith(".class")).sorted().toList();
+        }
+        for (Path classFile : classFiles) {
+            String relative = classes.relativize(classFile).toString();
+            String className = relative.substring(0, relative.length() - ".class".length()).replace(classFile.getFileSystem().getSeparator(), ".");
+            try {
+                Class<?> type = Class.forName(className, false, loader);
+                for (Method method : type.getDeclaredMethods()) {
+                    if (method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers())) {
+                        candidates.add(method);
+                    }
+                }
+            } catch (ClassNotFoundException | LinkageError ignored) {
+                // Not every class file is loadable on its own
+            }
+        }
+        return candidates;
+    }
+
+    private static String describe(Method method) {
+        return method.getDeclaringClass().getName() + "." + method.getName() + "(" + parameterTypes(method) + ")";
+    }
+}
@@ -0,0 +1,240 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs one shard of the test functions of a compiled Flix program, from the classes and test index written when the
+ * tests were compiled. Every shard sees the same tests and previous durations, so each can work out its own share
+ * without talking to the others.
+ */
+final class TestRunner {
+    // Tests without a recorded duration are assumed to take this long, so that new tests still spread out
+    private static final long DEFAULT_DURATION_NANOS = 10_000_000L;
+
+    private record Outcome(String name, long nanos, boolean skipped, String failure) {}
+
+    private final Properties properties;
+
+    TestRunner(Properties properties) {
+        this.properties = properties;
+    }
+
+    void run() throws IOException {
+        int shard = Integer.parseInt(properties.getProperty("testShard", "0"));
+        int shardCount = Integer.parseInt(properties.getProperty("testShardCount", "1"));
+        Map<String, Long> previous = readDurations(properties.getProperty("testDurations"));
+
+        String index = properties.getProperty("testIndex");
+        if (index == null) {
+            throw new RuntimeException("No test index given; the tests must be compiled first");
+        }
+        List<TestIndex.Entry> tests = TestIndex.read(Path.of(index));
+        List<TestIndex.Entry> assigned = partition(tests, previous, shardCount).get(shard);
+
+        URL[] classes = Arrays.stream(properties.getProperty("testClasses", "").split(","))
+            .filter(s -> !s.isEmpty())
+            .map(path -> {
+                try {
+                    return Path.of(path).toUri().toURL();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            })
+            .toArray(URL[]::new);
+
+        List<Outcome> outcomes = new ArrayList<>();
+        try (var loader = new URLClassLoader(classes, TestRunner.class.getClassLoader())) {
+            for (TestIndex.Entry test : assigned) {
+                String name = test.name();
+                if (test.skip()) {
+                    outcomes.add(new Outcome(name, 0, true, null));
+                    continue;
+                }
+                long start = System.nanoTime();
+                String failure = null;
+                try {
+                    Object value = invoke(loader, test);
+                    if (Boolean.FALSE.equals(value)) {
+                        failure = "Test returned false";
+                    }
+                } catch (Throwable t) {
+                    StringWriter trace = new StringWriter();
+                    t.printStackTrace(new PrintWriter(trace));
+                    failure = trace.toString();
+                }
+                outcomes.add(new Outcome(name, System.nanoTime() - start, false, failure));
+            }
+        }
+
+        String results = properties.getProperty("testResults");
+        if (results != null) {
+            writeJUnit(Path.of(results).resolve("TEST-flix-shard-" + shard + ".xml"), shard, outcomes);
+        }
+        String durations = properties.getProperty("testDurationsOut");
+        if (durations != null) {
+            Properties recorded = new Properties();
+            for (Outcome outcome : outcomes) {
+                if (!outcome.skipped()) {
+                    recorded.setProperty(outcome.name(), Long.toString(outcome.nanos()));
+                }
+            }
+            Path file = Path.of(durations);
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                recorded.store(writer, null);
+            }
+        }
+
+        long failed = outcomes.stream().filter(o -> o.failure() != null).count();
+        for (Outcome outcome : outcomes) {
+            if (outcome.failure() != null) {
+                System.err.println("FAILED " + outcome.name());
+                System.err.println(outcome.failure());
+            }
+        }
+        if (failed != 0) {
+            throw new RuntimeException(failed + " of " + outcomes.size() + " Flix tests in shard " + shard + " failed");
+        }
+    }
+
+    private static Object invoke(ClassLoader loader, TestIndex.Entry test) throws Throwable {
+        if (test.className() == null) {
+            throw new RuntimeException("The test index has no compiled method for test " + test.name() + "; compile the tests again");
+        }
+        Class<?> type = Class.forName(test.className(), true, loader);
+        List<Method> methods = Arrays.stream(type.getDeclaredMethods())
+            .filter(m -> m.getName().equals(test.methodName()) && TestIndex.parameterTypes(m).equals(test.parameterTypes()))
+            .toList();
+        if (methods.size() != 1) {
+            throw new RuntimeException("Expected one method " + test.className() + "." + test.methodName() + "(" + test.parameterTypes() + ") for test " + test.name() + " but found " + methods.size());
+        }
+        Method method = methods.get(0);
+        method.setAccessible(true);
+        // Test functions take only unit, which the compiled code never reads
+        try {
+            return method.invoke(null, new Object[method.getParameterCount()]);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Longest-first assignment of tests to the least loaded shard. Ties are broken by name, so that every shard
+     * computes the same partition.
+     */
+    static List<List<TestIndex.Entry>> partition(List<TestIndex.Entry> tests, Map<String, Long> durations, int shardCount) {
+        long fallback = durations.isEmpty()
+            ? DEFAULT_DURATION_NANOS
+            : durations.values().stream().mapToLong(Long::longValue).sum() / durations.size();
+        List<TestIndex.Entry> sorted = new ArrayList<>(tests);
+        sorted.sort(Comparator.<TestIndex.Entry>comparingLong(t -> -durations.getOrDefault(t.name(), fallback))
+            .thenComparing(TestIndex.Entry::name));
+
+        List<List<TestIndex.Entry>> shards = new ArrayList<>();
+        long[] loads = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (TestIndex.Entry test : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            shards.get(lightest).add(test);
+            loads[lightest] += durations.getOrDefault(test.name(), fallback);
+        }
+        return shards;
+    }
+
+    private static Map<String, Long> readDurations(String path) throws IOException {
+        Map<String, Long> durations = new HashMap<>();
+        if (path == null || !Files.exists(Path.of(path))) {
+            return durations;
+        }
+        Properties recorded = new Properties();
+        try (var reader = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+            recorded.load(reader);
+        }
+        for (String name : recorded.stringPropertyNames()) {
+            try {
+                durations.put(name, Long.parseLong(recorded.getProperty(name)));
+            } catch (NumberFormatException ignored) {}
+        }
+        return durations;
+    }
+
+    private static void writeJUnit(Path file, int shard, List<Outcome> outcomes) throws IOException {
+        long failures = outcomes.stream().filter(o -> o.failure() != null).count();
+        long skipped = outcomes.stream().filter(Outcome::skipped).count();
+        long total = outcomes.stream().mapToLong(Outcome::nanos).sum();
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<testsuite name=\"flix-shard-").append(shard)
+            .append("\" tests=\"").append(outcomes.size())
+            .append("\" failures=\"").append(failures)
+            .append("\" errors=\"0\" skipped=\"").append(skipped)
+            .append("\" time=\"").append(seconds(total)).append("\">\n");
+        for (Outcome outcome : outcomes) {
+            int split = outcome.name().lastIndexOf('.');
+            String className = split < 0 ? "Root" : outcome.name().substring(0, split);
+            String testName = split < 0 ? outcome.name() : outcome.name().substring(split + 1);
+            xml.append("  <testcase name=\"").append(escape(testName))
+                .append("\" classname=\"").append(escape(className))
+                .append("\" time=\"").append(seconds(outcome.nanos())).append("\"");
+            if (outcome.skipped()) {
+                xml.append(">\n    <skipped/>\n  </testcase>\n");
+            } else if (outcome.failure() != null) {
+                String message = outcome.failure().lines().findFirst().orElse("");
+                xml.append(">\n    <failure message=\"").append(escape(message)).append("\">")
+                    .append(escape(outcome.failure())).append("</failure>\n  </testcase>\n");
+            } else {
+                xml.append("/>\n");
+            }
+        }
+        xml.append("</testsuite>\n");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.writeString(file, xml, StandardCharsets.UTF_8);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000_000.0);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '&' -> escaped.append("&amp;");
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '"' -> escaped.append("&quot;");
+                case '\n', '\r', '\t' -> escaped.append(c);
+                default -> {
+                    if (c >= 0x20) {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.toString();
+    }
+}
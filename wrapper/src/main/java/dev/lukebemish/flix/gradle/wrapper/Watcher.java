@@ -0,0 +1,173 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import ca.uwaterloo.flix.api.Flix;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one {@link Flix} instance alive and recompiles it whenever the watched source directories change. Edits that
+ * arrive close together are compiled as one batch.
+ */
+final class Watcher {
+    private final Flix flix;
+    private final FlixOptions options;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> sources = new HashSet<>();
+
+    Watcher(Flix flix, FlixOptions options) {
+        this.flix = flix;
+        this.options = options;
+        this.sources.addAll(options.sourceFlix());
+    }
+
+    void run() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (Path directory : options.watchDirectories()) {
+                if (Files.isDirectory(directory)) {
+                    register(watchService, directory);
+                }
+            }
+
+            compile();
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                Set<Path> removed = new LinkedHashSet<>();
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                    boolean rescan = false;
+                    while (key != null) {
+                        rescan |= poll(watchService, key, changed, removed);
+                        key = watchService.poll(options.watchDebounceMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    if (rescan) {
+                        rescan(changed, removed);
+                    }
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+
+                for (Path path : removed) {
+                    if (sources.remove(path)) {
+                        flix.remFlix(path);
+                    }
+                }
+                for (Path path : changed) {
+                    sources.add(path);
+                    flix.addFlix(path);
+                }
+                if (!changed.isEmpty() || !removed.isEmpty()) {
+                    compile();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether events were lost, so that the directories have to be scanned again
+     */
+    private boolean poll(WatchService watchService, WatchKey key, Set<Path> changed, Set<Path> removed) throws IOException {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.remove(path);
+                removed.add(path);
+                // The entry may have been a directory, so drop everything that was beneath it
+                for (Path source : sources) {
+                    if (source.startsWith(path)) {
+                        removed.add(source);
+                    }
+                }
+            } else if (Files.isDirectory(path)) {
+                register(watchService, path);
+                try (Stream<Path> stream = Files.walk(path)) {
+                    stream.filter(Watcher::isSource).forEach(p -> {
+                        removed.remove(p);
+                        changed.add(p);
+                    });
+                }
+            } else if (isSource(path)) {
+                removed.remove(path);
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void rescan(Set<Path> changed, Set<Path> removed) throws IOException {
+        Set<Path> current = new HashSet<>();
+        for (Path directory : options.watchDirectories()) {
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> stream = Files.walk(directory)) {
+                    stream.filter(Watcher::isSource).forEach(current::add);
+                }
+            }
+        }
+        for (Path source : sources) {
+            if (!current.contains(source)) {
+                removed.add(source);
+            }
+        }
+        // Without the lost events there is no telling what changed, so every source is handed over again
+        changed.clear();
+        changed.addAll(current);
+        removed.removeAll(current);
+    }
+
+    private void register(WatchService watchService, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void compile() {
+        long start = System.nanoTime();
+        try {
+            Wrapper.compile(flix, options);
+            System.out.println("Compiled " + sources.size() + " sources in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (RuntimeException e) {
+            if (!Wrapper.COMPILATION_FAILED.equals(e.getMessage())) {
+                e.printStackTrace();
+            }
+            System.out.println("Compilation failed after " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        System.out.println("Waiting for changes...");
+        System.out.flush();
+    }
+
+    private static boolean isSource(Path path) {
+        return path.getFileName().toString().endsWith(".flix") && Files.isRegularFile(path);
+    }
+}
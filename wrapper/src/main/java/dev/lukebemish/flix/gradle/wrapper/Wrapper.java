@@ -6,16 +6,24 @@
 import ca.uwaterloo.flix.util.Result;
 import ca.uwaterloo.flix.util.collection.Chain;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 public final class Wrapper {
     private Wrapper() {}
 
+    static final String COMPILATION_FAILED = "Compilation failed";
+    public static final String OUT_OF_MEMORY = "The Flix compiler ran out of memory";
+
     public static void main(String[] args) {
         if (args.length < 1) {
             throw new RuntimeException("Must provide a properties file");
@@ -28,61 +36,123 @@ public static void main(String[] args) {
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+
+        execute(properties, Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /**
+     * Runs a compiler daemon that serves compile requests over a loopback socket until it has been idle for the given
+     * timeout. The port and access token are published in the state file, which is removed again on exit.
+     */
+    public static void serve(String[] args) {
+        if (args.length < 2) {
+            throw new RuntimeException("Must provide a state file and an idle timeout");
+        }
+
+        Path stateFile = Paths.get(args[0]);
+        Duration idleTimeout = Duration.ofSeconds(Long.parseLong(args[1]));
+        try {
+            new CompilerServer(stateFile, idleTimeout).run();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void execute(Properties properties, String[] args) {
+        execute(properties, args, new HashMap<>());
+    }
+
+    static void execute(Properties properties, String[] args, Map<String, IncrementalSession> sessions) {
         FlixOptions options = new FlixOptions();
         options.read(properties);
 
         FlixCommand command = FlixCommand.valueOf(properties.getProperty("command").toUpperCase(Locale.ROOT));
 
-        Flix flix = new Flix();
-        flix.setOptions(options.create());
-        options.configure(flix);
+        if (command == FlixCommand.TEST) {
+            // Tests run from the classes of an earlier compile, so no compiler is needed
+            try {
+                new TestRunner(properties).run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        Flix flix = IncrementalSession.open(properties, options, sessions);
 
         switch (command) {
             case COMPILE -> {
-                compile(flix);
+                var result = compile(flix, options);
+                String testIndex = properties.getProperty("testIndex");
+                if (testIndex != null) {
+                    try {
+                        TestIndex.write(result, options.outputDirectory(), Path.of(testIndex));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
             }
             case DOC -> {
                 // TODO: Implement
                 throw new UnsupportedOperationException("Not yet implemented");
             }
-            case RUN -> {
-                String[] newArgs;
-                if (args.length == 1) {
-                    newArgs = new String[0];
-                } else {
-                    newArgs = new String[args.length - 1];
-                    System.arraycopy(args, 1, newArgs, 0, args.length);
+            case WATCH -> {
+                try {
+                    new Watcher(flix, options).run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-
-                var main = compile(flix).getMain();
+            }
+            case TEST -> throw new IllegalStateException("Tests are run without a compiler");
+            case BENCHMARK -> {
+                try {
+                    new BenchmarkRunner(properties).run(compile(flix, options));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            case RUN -> {
+                var main = compile(flix, options).getMain();
 
                 if (main.isEmpty()) {
                     throw new RuntimeException("No main function found");
                 } else {
-                    main.get().apply(newArgs);
+                    main.get().apply(args);
                 }
             }
         }
     }
 
-    private static CompilationResult compile(Flix flix) {
-        var validation = flix.compile();
-        validation.unsafeGet();
-        if (!(validation.toHardResult() instanceof Result.Ok<CompilationResult, Chain<CompilationMessage>> success)) {
-            scala.collection.Iterable<String> list = flix.mkMessages(validation.toHardFailure().errors());
-            while (!list.isEmpty()) {
-                System.err.println(list.head());
-                list = list.tail();
+    static CompilationResult compile(Flix flix, FlixOptions options) {
+        CompileReport report = CompileReport.start(flix, options);
+        boolean succeeded = false;
+        try {
+            var validation = flix.compile();
+            validation.unsafeGet();
+            if (!(validation.toHardResult() instanceof Result.Ok<CompilationResult, Chain<CompilationMessage>> success)) {
+                scala.collection.Iterable<String> list = flix.mkMessages(validation.toHardFailure().errors());
+                while (!list.isEmpty()) {
+                    System.err.println(list.head());
+                    list = list.tail();
+                }
+                throw new RuntimeException(COMPILATION_FAILED);
+            } else {
+                succeeded = true;
+                return success.get();
             }
-            throw new RuntimeException("Compilation failed");
-        } else {
-            return success.get();
+        } finally {
+            report.finish(succeeded);
         }
     }
 
     public enum FlixCommand {
         COMPILE,
         DOC,
-        RUN
+        RUN,
+        WATCH,
+        TEST,
+        BENCHMARK
     }
 }
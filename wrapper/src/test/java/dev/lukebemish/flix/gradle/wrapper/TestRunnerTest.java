@@ -0,0 +1,64 @@
+package dev.lukebemish.flix.gradle.wrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestRunnerTest {
+    @Test
+    void longestTestsGoToTheLeastLoadedShard() {
+        var durations = Map.of("a", 100L, "b", 60L, "c", 50L, "d", 40L, "e", 10L);
+        var shards = TestRunner.partition(tests("e", "d", "c", "b", "a"), durations, 2);
+        assertEquals(List.of(List.of("a", "d"), List.of("b", "c", "e")), names(shards));
+    }
+
+    @Test
+    void testsWithoutDurationsTakeTheMeanOfTheOthers() {
+        var durations = Map.of("a", 30L, "b", 10L);
+        var shards = TestRunner.partition(tests("a", "b", "new"), durations, 2);
+        assertEquals(List.of(List.of("a"), List.of("new", "b")), names(shards));
+    }
+
+    @Test
+    void testsWithoutAnyDurationsAreSpreadByName() {
+        var shards = TestRunner.partition(tests("t4", "t2", "t3", "t1"), Map.of(), 2);
+        assertEquals(List.of(List.of("t1", "t3"), List.of("t2", "t4")), names(shards));
+    }
+
+    @Test
+    void everyShardComputesTheSamePartition() {
+        var durations = Map.of("a", 5L, "b", 5L, "c", 5L, "d", 7L);
+        var tests = tests("a", "b", "c", "d", "e", "f");
+        var shuffled = new ArrayList<>(tests);
+        Collections.reverse(shuffled);
+        assertEquals(names(TestRunner.partition(tests, durations, 3)), names(TestRunner.partition(shuffled, durations, 3)));
+    }
+
+    @Test
+    void everyTestRunsInExactlyOneShard() {
+        var tests = tests("a", "b", "c");
+        var shards = TestRunner.partition(tests, Map.of("b", 1L), 5);
+        assertEquals(5, shards.size());
+        var assigned = new ArrayList<String>();
+        names(shards).forEach(assigned::addAll);
+        Collections.sort(assigned);
+        assertEquals(List.of("a", "b", "c"), assigned);
+    }
+
+    private static List<TestIndex.Entry> tests(String... names) {
+        var tests = new ArrayList<TestIndex.Entry>();
+        for (String name : names) {
+            tests.add(new TestIndex.Entry(name, false, "Ns", "m_" + name, "java.lang.Object"));
+        }
+        return tests;
+    }
+
+    private static List<List<String>> names(List<List<TestIndex.Entry>> shards) {
+        return shards.stream().map(shard -> shard.stream().map(TestIndex.Entry::name).toList()).toList();
+    }
+}